@@ -66,9 +66,9 @@ public class BenchmarkTester implements ResultObserver {
 		Set<Integer> sentTaskIds = new HashSet<Integer>();
 		long start = System.currentTimeMillis();
 		for (Task task : taskSet) {
-			client.sendNewTask(task);
 			sentTaskIds.add(task.getId());
 		}
+		client.sendNewTasks(taskSet);
 		long end = System.currentTimeMillis();
 		System.out.println("Tasks sent in " + (end - start) + " milliseconds.");
 		while (sentTaskIds.size() > 0) {
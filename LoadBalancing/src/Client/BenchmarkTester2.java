@@ -104,9 +104,8 @@ public class BenchmarkTester2 implements ResultObserver {
 		
 		Set<Integer> sentTaskIds = new HashSet<Integer>();
 		for (Task task : taskSet) {
+			//paced by the client's credits for tasks in flight
 			client.sendNewTask(task);
-			try {Thread.sleep(100);}
-			catch (InterruptedException e) {}
 			sentTaskIds.add(task.getId());
 		}
 		while (sentTaskIds.size() > 0) {
@@ -1,19 +1,23 @@
 package Client;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Timer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import Common.Constants;
 import Common.Message;
+import Common.MessageHandler;
 import Common.ResultObserver;
+import Common.ServerLink;
 import Common.Task;
-import Common.ExternalSocketCloser;
 
 /**
  * Class represents the state of the client.
@@ -21,7 +25,7 @@ import Common.ExternalSocketCloser;
  * directed to the client.
  * @author Sviatoslav Sivov
  */
-public class Client {
+public class Client implements MessageHandler {
 	
 	/** ID of the client */
 	private volatile int id;
@@ -38,9 +42,35 @@ public class Client {
 	/** Server's port */
 	private int serverPort;
 	
+	/** Persistent connection to the server */
+	private ServerLink link = null;
+	
 	/** Observers interested in received results */
 	private ArrayList<ResultObserver> observers = new ArrayList<ResultObserver>();
 	
+	/** Credits for the tasks on the server: one is taken for every task 
+	 * sent, and given back when its result is received or it is aborted. 
+	 * A task is not sent until there is a credit for it, so the client 
+	 * never has more than MAX_TASKS_IN_FLIGHT_PER_USER tasks on the server */
+	private final Semaphore credits = new Semaphore(Constants.MAX_TASKS_IN_FLIGHT_PER_USER);
+	
+	/** Tasks sent and not completed yet, so the ones refused by the 
+	 * server (see BUSY) can be sent again
+	 * Key - task ID */
+	private final Map<Integer, Task> tasksInFlight = new ConcurrentHashMap<Integer, Task>();
+	
+	/** Sends the refused tasks again, once the time the server asked to 
+	 * wait for is over */
+	private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TaskRetries");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	
 	/**
 	 * Create a client 'without' ID
 	 * Default ID will be 0, will be re-assigned
@@ -112,6 +142,10 @@ public class Client {
 	public void setServerInfo(InetAddress address, int port) {
 		serverAddress = address;
 		serverPort = port;
+		if (link != null) {
+			link.close();
+		}
+		link = new ServerLink(address, port, this);
 	}
 	
 	/**
@@ -123,6 +157,10 @@ public class Client {
 			id = newId;
 		}
 		isRegistered = true;
+		if (link != null) {
+			link.setSyncMessage(new Message(Constants.RequestType.SYNC, newId, 
+					listeningPort, Constants.ClientType.USER));
+		}
 		System.out.println("Obtained id: " + newId);
 	}
 	
@@ -135,23 +173,104 @@ public class Client {
 	}
 	
 	/**
-	 * Sends a new task to the server for computation
+	 * Sends a new task to the server for computation. Waits for a credit 
+	 * first, if the client has MAX_TASKS_IN_FLIGHT_PER_USER tasks on the
+	 * server already
 	 * @param task - task object to send
 	 */
 	public void sendNewTask(Task task) {
+		credits.acquireUninterruptibly();
+		tasksInFlight.put(task.getId(), task);
 		Message sendTask = new Message(Constants.RequestType.NEW_TASK, id, task);
 		sendMessage(sendTask);
 			
 	}
 	
+	/**
+	 * Sends a number of new tasks to the server for computation at once.
+	 * The server registers and places the whole batch in one go. 
+	 * If there are not enough credits for all the tasks, the ones there 
+	 * are credits for are sent, and the rest is sent as credits are 
+	 * given back
+	 * @param tasks - task objects to send
+	 */
+	public void sendNewTasks(Collection<Task> tasks) {
+		List<Task> batch = new ArrayList<Task>();
+		for (Task task : tasks) {
+			if (! credits.tryAcquire()) {
+				sendBatch(batch);
+				credits.acquireUninterruptibly();
+			}
+			tasksInFlight.put(task.getId(), task);
+			batch.add(task);
+		}
+		sendBatch(batch);
+	}
+	
+	/**
+	 * Sends the tasks (the credits for them are taken already)
+	 * @param batch - tasks to send, emptied
+	 */
+	private void sendBatch(List<Task> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Task[] tasks = batch.toArray(new Task[batch.size()]);
+		batch.clear();
+		if (tasks.length == 1) {
+			sendMessage(new Message(Constants.RequestType.NEW_TASK, id, tasks[0]));
+		} else {
+			sendMessage(new Message(Constants.RequestType.NEW_TASK_BATCH, id, tasks));
+		}
+	}
+	
+	/**
+	 * Aborts a task sent for computation before. No result will be
+	 * received for it
+	 * @param taskId - id of the task to abort
+	 */
+	public void abortTask(int taskId) {
+		Message abort = new Message(Constants.RequestType.ABORT, id, taskId);
+		sendMessage(abort);
+		taskDone(taskId);
+	}
+	
+	/**
+	 * The task is no longer on the server, give its credit back
+	 * @param taskId - id of the task
+	 */
+	private void taskDone(int taskId) {
+		if (tasksInFlight.remove(taskId) != null) {
+			credits.release();
+		}
+	}
+	
+	/**
+	 * The server has refused the tasks (see BUSY). They keep their credits,
+	 * and are sent again once the time the server asked to wait for is
+	 * over, unless aborted in the meantime
+	 * @param taskIds - ids of the refused tasks
+	 * @param retryAfter - time (in milliseconds) to wait
+	 */
+	private void tasksRefused(final int[] taskIds, long retryAfter) {
+		retries.schedule(new Runnable() {
+			@Override
+			public void run() {
+				List<Task> batch = new ArrayList<Task>(taskIds.length);
+				for (int taskId : taskIds) {
+					Task task = tasksInFlight.get(taskId);
+					if (task != null) {
+						batch.add(task);
+					}
+				}
+				sendBatch(batch);
+			}
+		}, retryAfter, TimeUnit.MILLISECONDS);
+	}
+	
 	public void sendMessage(Message message) {
 		try {
-			Socket socket = new Socket(serverAddress, serverPort);
-			ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
-			ooStream.writeObject(message);
-			socket.shutdownOutput();
-			socket.shutdownInput();
-			socket.close();
+			link.send(message);
 		} catch (Exception e) {
 			System.out.println("Sending message " + message.getCommand() + " failed...");
 		}
@@ -163,6 +282,7 @@ public class Client {
 	 * @param taskId - id of the completed task
 	 */
 	public void resultReceived(int taskId, Object result) {
+		taskDone(taskId);
 		for (ResultObserver observer : observers) {
 			observer.resultReceived(taskId, result);
 		}
@@ -171,49 +291,60 @@ public class Client {
 		}
 	}
 	
+	/**
+	 * Message was pushed by the server over the persistent connection
+	 * @param message - received message
+	 */
+	@Override
+	public void messageReceived(Message message) {
+		switch (message.getCommand()) {
+		case SYNC:
+			int id = (Integer) message.getArgs()[0];
+			assignId(id);
+			break;
+		case RESULT:
+			int taskId = (int) message.getArgs()[1];
+			Object result = message.getArgs()[2];
+			resultReceived(taskId, result);
+			break;
+		case RESULT_BATCH:
+			int[] taskIds = (int[]) message.getArgs()[1];
+			Object[] results = (Object[]) message.getArgs()[2];
+			for (int i = 0; i < taskIds.length; i++) {
+				resultReceived(taskIds[i], results[i]);
+			}
+			break;
+		case BUSY:
+			tasksRefused((int[]) message.getArgs()[1], (long) message.getArgs()[2]);
+			break;
+		default:
+			System.out.println("Unrecognized command received: " + message.getCommand());
+			break;
+		}
+	}
+	
 	/**
 	 * Implements initial communication with the server workflow
-	 *  - client sends sync with its id to the server
+	 *  - client opens persistent connection and sends sync with its id
 	 *  - server responds with another sync message, containing assigned id
+	 * The same sync is repeated automatically whenever connection is 
+	 * re-established.
 	 * If something goes wrong in the workflow, connection is terminated
 	 * @param syncId - client's self-assigned id
 	 * @return true, if sync was successful and server-assigned id received
 	 * 		   false, otherwise
 	 */
 	public boolean sync(int syncId) {
-		boolean syncSuccessful = false;
 		Message helloMsg = new Message(Constants.RequestType.SYNC, syncId, listeningPort, Constants.ClientType.USER);
-		Socket socket = null;
+		isRegistered = false;
+		link.setSyncMessage(helloMsg);
 		try {
-			socket = new Socket(serverAddress, serverPort);
-			ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
-			ooStream.writeObject(helloMsg);
+			link.reconnect();
 			System.out.println("Message sent! Command: " + helloMsg.getCommand());
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.out.println("Sending failed...Command: " + helloMsg.getCommand());
 			return false;
 		}
-		Timer timer = new Timer();
-		try {
-			ExternalSocketCloser interrupter = new ExternalSocketCloser(socket);
-			ObjectInputStream oiStream = new ObjectInputStream(socket.getInputStream());
-			while (! syncSuccessful) {	
-				timer.schedule(interrupter, 3000);
-				Message serverMsg = (Message) oiStream.readObject();
-				if (serverMsg.getCommand().equals(Constants.RequestType.SYNC)) {
-					int id = (int) serverMsg.getArgs()[0];
-					this.assignId(id);
-					syncSuccessful = true;
-				}
-			}
-			socket.close();
-		} catch (IOException e) {
-			System.out.println("SYNC interrupted.");
-		} catch (ClassNotFoundException e) {
-			// ignore
-		} finally {
-			timer.cancel();
-		}
-		return syncSuccessful;
+		return isRegistered;
 	}
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import java.net.ServerSocket;
 import java.net.UnknownHostException;
 
 import Common.Constants;
+import Common.SelectorGate;
 
 /** 
  * Class with the main method for running clients'
@@ -46,7 +47,7 @@ public class ClientMain {
 			try {
 				while(listenerPort < Integer.MAX_VALUE){
 					try{
-						ss = new ServerSocket(listenerPort);
+						ss = SelectorGate.bind(listenerPort);
 						break;
 					}
 					catch(java.net.BindException e){
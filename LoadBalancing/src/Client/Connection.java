@@ -1,12 +1,11 @@
 package Client;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.Timer;
 
 import Common.Constants;
 import Common.Message;
+import Common.SocketMessageChannel;
 import Common.ExternalSocketCloser;
 
 /**
@@ -15,7 +14,7 @@ import Common.ExternalSocketCloser;
  * client invoke corresponding methods
  * @author Sviatoslav Sivov
  */
-public class Connection extends Thread {
+public class Connection implements Runnable {
 
 	/** Socket for connection with the server */
 	private final Socket socket;
@@ -23,10 +22,8 @@ public class Connection extends Thread {
 	/** Governing client object */
 	private final Client client;
 	
-	/** Read messages from this stream for communication with the server */
-	private ObjectInputStream oiStream;
-	
-	ObjectOutputStream ooStream;
+	/** Framed connection on top of the socket */
+	private SocketMessageChannel channel;
 	
 	/**
 	 * Create a new connection using given socket and a 'manager' client
@@ -34,15 +31,12 @@ public class Connection extends Thread {
 	 * @param _client - client state object
 	 */
 	public Connection(Socket _socket, Client _client) {
-		super();
 		socket = _socket;
 		client = _client;
 		try {
-			//oiStream = new ObjectInputStream(socket.getInputStream());
-			oiStream = new ObjectInputStream(socket.getInputStream());
-			ooStream = new ObjectOutputStream(socket.getOutputStream());
+			channel = new SocketMessageChannel(socket);
 		} catch (IOException e) {
-			oiStream = null;
+			channel = null;
 		}
 	}
 	
@@ -50,18 +44,16 @@ public class Connection extends Thread {
 	 * Receive and interpret messages until connection is terminated
 	 */
 	public void run() {
-		if (oiStream == null) {
+		if (channel == null) {
 			return;
 		}
 		while (! socket.isClosed()) {
 			Message message = null;
 			try {
-				message = (Message) oiStream.readObject();
+				message = channel.receive();
 				interpretMessage(message);
-			} catch (ClassNotFoundException | IOException e) {
-				try {
-					socket.close();
-				} catch (IOException e1) {}
+			} catch (IOException e) {
+				channel.close();
 			}
 		}
 	}
@@ -77,9 +69,8 @@ public class Connection extends Thread {
 	private boolean receiveMessage() {
 		boolean communicationCompleted = false;
 		try {
-			//ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
 			Message handshakeResponse = new Message(Constants.RequestType.HANDSHAKE, client.getId());
-			ooStream.writeObject(handshakeResponse);
+			channel.send(handshakeResponse);
 		} catch (IOException e) {
 			return false;
 		}
@@ -88,17 +79,15 @@ public class Connection extends Thread {
 			ExternalSocketCloser interrupter = new ExternalSocketCloser(socket);
 			while (! communicationCompleted) {
 				timer.schedule(interrupter, 3000);
-				Message serverMsg = (Message) oiStream.readObject();
+				Message serverMsg = channel.receive();
 				if (! serverMsg.getCommand().equals(Constants.RequestType.HANDSHAKE)) {
 					interpretMessage(serverMsg);
 					communicationCompleted = true;
-					socket.close();
+					channel.close();
 				}
 			}
 		} catch (IOException e) {
 			System.out.println("Socket read interrupted!");
-		} catch (ClassNotFoundException e) {
-			
 		} finally {
 			timer.cancel();
 		}
@@ -106,25 +95,18 @@ public class Connection extends Thread {
 	}
 
 	/**
-	 * Decides how to act based on the received message's command
+	 * Decides how to act based on the received message's command.
+	 * Everything except the handshake is handled the same way as the 
+	 * messages pushed over the persistent connection to the server
 	 * @param message - received message
 	 */
 	private void interpretMessage(Message message) {
 		switch (message.getCommand()) {
-		case SYNC:
-			int id = (Integer) message.getArgs()[0];
-			client.assignId(id);
-			break;
 		case HANDSHAKE:
 			receiveMessage();
 			break;
-		case RESULT:
-			int taskId = (int) message.getArgs()[1];
-			Object result = message.getArgs()[2];
-			client.resultReceived(taskId, result);
-			break;
 		default:
-			System.out.println("Unrecognized command received: " + message.getCommand());
+			client.messageReceived(message);
 			break;
 		}
 	}
@@ -6,6 +6,7 @@ import java.net.UnknownHostException;
 
 import Common.Constants;
 import Common.Message;
+import Common.SelectorGate;
 
 
 /** 
@@ -57,7 +58,7 @@ public class MainScript2 {
 			try {
 				while(listenerPort < Integer.MAX_VALUE){
 					try{
-						ss = new ServerSocket(listenerPort);
+						ss = SelectorGate.bind(listenerPort);
 						break;
 					}
 					catch(java.net.BindException e){
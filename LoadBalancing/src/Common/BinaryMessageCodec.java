@@ -0,0 +1,386 @@
+package Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import Tasks.TaskTypes;
+
+/**
+ * Compact binary encoding of the messages.
+ * A message is written as its command, correlation id and arguments.
+ * Every argument is preceded by a one-byte type tag: ids and other integers
+ * are written as variable length integers, cpu shares and loads as primitive
+ * doubles, tasks as their type (see Tasks.TaskTypes) followed by their
+ * parameters. Arguments of any other type are embedded using the Java
+ * serialization, so any message can still be sent.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+	/** Tag of the frames encoded by this codec */
+	public static final byte TAG = 2;
+
+	/* Argument type tags */
+	private static final byte NULL = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte TRUE = 4;
+	private static final byte FALSE = 5;
+	private static final byte STRING = 6;
+	private static final byte CLIENT_TYPE = 7;
+	private static final byte PERFORMANCE = 8;
+	private static final byte TASK = 9;
+	private static final byte INT_ARRAY = 10;
+	private static final byte DOUBLE_ARRAY = 11;
+	private static final byte OBJECT_ARRAY = 12;
+	private static final byte SERIALIZED = 13;
+	private static final byte TASK_ARRAY = 14;
+	private static final byte LONG_ARRAY = 15;
+
+	/** Commands by their ordinal */
+	private static final Constants.RequestType[] COMMANDS = Constants.RequestType.values();
+
+	/** Client types by their ordinal */
+	private static final Constants.ClientType[] CLIENT_TYPES = Constants.ClientType.values();
+
+	@Override
+	public byte getTag() {
+		return TAG;
+	}
+
+	@Override
+	public void encode(Message message, DataOutputStream out) throws IOException {
+		out.writeByte(message.getCommand().ordinal());
+		writeVarInt(out, message.getCorrelationId());
+		Object[] args = message.getArgs();
+		if (args == null) {
+			writeVarInt(out, -1);
+			return;
+		}
+		writeVarInt(out, args.length);
+		for (Object arg : args) {
+			writeValue(out, arg);
+		}
+	}
+
+	@Override
+	public Message decode(DataInputStream in) throws IOException {
+		int command = in.readUnsignedByte();
+		if (command >= COMMANDS.length) {
+			throw new IOException("Frame does not contain a valid message: unknown command " + command);
+		}
+		int correlationId = readVarInt(in);
+		int length = readVarInt(in);
+		Object[] args = null;
+		if (length >= 0) {
+			args = new Object[length];
+			for (int i = 0; i < length; i++) {
+				args[i] = readValue(in);
+			}
+		}
+		Message message = new Message(COMMANDS[command], args);
+		message.setCorrelationId(correlationId);
+		return message;
+	}
+
+	/**
+	 * Write a single argument preceded by its type tag
+	 * @param out - destination
+	 * @param value - argument
+	 * @throws IOException - if the argument can not be written
+	 */
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			writeVarInt(out, (Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			writeVarLong(out, (Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Constants.ClientType) {
+			out.writeByte(CLIENT_TYPE);
+			out.writeByte(((Constants.ClientType) value).ordinal());
+		} else if (value.getClass() == Performance.class) {
+			Performance performance = (Performance) value;
+			out.writeByte(PERFORMANCE);
+			writeVarInt(out, performance.getUncompletedTaskCount());
+			out.writeDouble(performance.getCpuLoad());
+		} else if (value instanceof Task && TaskTypes.isRegistered((Task) value)) {
+			Task task = (Task) value;
+			out.writeByte(TASK);
+			out.writeByte(task.getTaskType());
+			task.write(out);
+			writeValue(out, task.result);
+		} else if (value instanceof int[]) {
+			int[] array = (int[]) value;
+			out.writeByte(INT_ARRAY);
+			writeVarInt(out, array.length);
+			for (int item : array) {
+				writeVarInt(out, item);
+			}
+		} else if (value instanceof double[]) {
+			double[] array = (double[]) value;
+			out.writeByte(DOUBLE_ARRAY);
+			writeVarInt(out, array.length);
+			for (double item : array) {
+				out.writeDouble(item);
+			}
+		} else if (value instanceof long[]) {
+			long[] array = (long[]) value;
+			out.writeByte(LONG_ARRAY);
+			writeVarInt(out, array.length);
+			for (long item : array) {
+				writeVarLong(out, item);
+			}
+		} else if (value instanceof Task[]) {
+			Task[] array = (Task[]) value;
+			out.writeByte(TASK_ARRAY);
+			writeVarInt(out, array.length);
+			for (Task item : array) {
+				writeValue(out, item);
+			}
+		} else if (value.getClass() == Object[].class) {
+			Object[] array = (Object[]) value;
+			out.writeByte(OBJECT_ARRAY);
+			writeVarInt(out, array.length);
+			for (Object item : array) {
+				writeValue(out, item);
+			}
+		} else {
+			out.writeByte(SERIALIZED);
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+			ObjectOutputStream ooStream = new ObjectOutputStream(buffer);
+			ooStream.writeObject(value);
+			ooStream.close();
+			writeVarInt(out, buffer.size());
+			buffer.writeTo(out);
+		}
+	}
+
+	/**
+	 * Read a single argument, written by writeValue
+	 * @param in - source
+	 * @return argument
+	 * @throws IOException - if the source does not contain a valid argument
+	 */
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case INT:
+			return readVarInt(in);
+		case LONG:
+			return readVarLong(in);
+		case DOUBLE:
+			return in.readDouble();
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case STRING:
+			return readString(in);
+		case CLIENT_TYPE: {
+			int type = in.readUnsignedByte();
+			if (type >= CLIENT_TYPES.length) {
+				throw new IOException("Frame does not contain a valid message: unknown client type " + type);
+			}
+			return CLIENT_TYPES[type];
+		}
+		case PERFORMANCE: {
+			Performance performance = new Performance();
+			performance.setUncompletedTaskCount(readVarInt(in));
+			performance.setCpuLoad(in.readDouble());
+			return performance;
+		}
+		case TASK: {
+			Task task = TaskTypes.read(in.readUnsignedByte(), in);
+			task.result = readValue(in);
+			return task;
+		}
+		case INT_ARRAY: {
+			int[] array = new int[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = readVarInt(in);
+			}
+			return array;
+		}
+		case DOUBLE_ARRAY: {
+			double[] array = new double[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = in.readDouble();
+			}
+			return array;
+		}
+		case OBJECT_ARRAY: {
+			Object[] array = new Object[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = readValue(in);
+			}
+			return array;
+		}
+		case LONG_ARRAY: {
+			long[] array = new long[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = readVarLong(in);
+			}
+			return array;
+		}
+		case TASK_ARRAY: {
+			Task[] array = new Task[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				Object item = readValue(in);
+				if (item != null && ! (item instanceof Task)) {
+					throw new IOException("Frame does not contain a valid message: task expected");
+				}
+				array[i] = (Task) item;
+			}
+			return array;
+		}
+		case SERIALIZED: {
+			byte[] bytes = new byte[readLength(in)];
+			in.readFully(bytes);
+			ObjectInputStream oiStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return oiStream.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Frame does not contain a valid message: " + e.getMessage());
+			}
+		}
+		default:
+			throw new IOException("Frame does not contain a valid message: unknown argument type " + tag);
+		}
+	}
+
+	/**
+	 * Read the length of an array or a string
+	 * @param in - source
+	 * @return length
+	 * @throws IOException - if the length is not valid
+	 */
+	private static int readLength(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+			throw new IOException("Frame does not contain a valid message: invalid length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Write an int in 1-5 bytes, small absolute values taking fewer bytes
+	 * @param out - destination
+	 * @param value - value to write
+	 * @throws IOException - if the value can not be written
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			out.writeByte((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		out.writeByte(zigzag);
+	}
+
+	/**
+	 * Read an int written by writeVarInt
+	 * @param in - source
+	 * @return value
+	 * @throws IOException - if the value can not be read
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		int zigzag = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.readByte();
+			zigzag |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * Write a long in 1-10 bytes, small absolute values taking fewer bytes
+	 * @param out - destination
+	 * @param value - value to write
+	 * @throws IOException - if the value can not be written
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	/**
+	 * Read a long written by writeVarLong
+	 * @param in - source
+	 * @return value
+	 * @throws IOException - if the value can not be read
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = in.readByte();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * Write a string (possibly null) as its UTF-8 bytes
+	 * @param out - destination
+	 * @param value - string to write
+	 * @throws IOException - if the value can not be written
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, -1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string written by writeString
+	 * @param in - source
+	 * @return string, or null
+	 * @throws IOException - if the value can not be read
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+			throw new IOException("Frame does not contain a valid message: invalid length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,192 @@
+package Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+
+import Tasks.PasswordBruteforce2;
+import Tasks.PrimeCalculator2;
+import Tasks.Timer;
+
+/**
+ * Compares the message codecs. First, messages of every command (in every
+ * form the components actually send) are passed through each codec and
+ * compared with the originals; the benchmark exits with status 1 if a
+ * message does not survive the round trip or a command has no sample. Then
+ * the same messages are encoded and decoded repeatedly, reporting bytes
+ * per message and time per message.
+ * Usage: CodecBenchmark [iterations]
+ */
+public class CodecBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		List<Message> messages = sampleMessages();
+		MessageCodec[] codecs = { new JavaSerializationCodec(), new BinaryMessageCodec() };
+
+		boolean allMatched = true;
+		EnumSet<Constants.RequestType> sampled = EnumSet.noneOf(Constants.RequestType.class);
+		for (Message message : messages) {
+			sampled.add(message.getCommand());
+		}
+		if (sampled.size() != Constants.RequestType.values().length) {
+			allMatched = false;
+			System.out.println("No sample message for " 
+					+ EnumSet.complementOf(sampled));
+		}
+		for (MessageCodec codec : codecs) {
+			for (Message message : messages) {
+				Message decoded = decode(codec, encode(codec, message));
+				if (! sameMessage(message, decoded)) {
+					allMatched = false;
+					System.out.println(codec.getClass().getSimpleName() + " round trip FAILED for "
+							+ message + " -> " + decoded);
+				}
+			}
+		}
+		System.out.println("Round trip of " + messages.size() + " messages: "
+				+ (allMatched ? "all matched" : "MISMATCH"));
+		if (! allMatched) {
+			System.exit(1);
+		}
+
+		for (MessageCodec codec : codecs) {
+			long bytes = 0;
+			for (Message message : messages) {
+				bytes += encode(codec, message).length;
+			}
+			//warm up
+			run(codec, messages, iterations / 10);
+			long start = System.nanoTime();
+			run(codec, messages, iterations);
+			long elapsed = System.nanoTime() - start;
+			long count = (long) iterations * messages.size();
+			System.out.println(String.format("%-24s %6.1f bytes/message, %8.0f ns/message (encode + decode)",
+					codec.getClass().getSimpleName(), (double) bytes / messages.size(), (double) elapsed / count));
+		}
+	}
+
+	/**
+	 * Encode and decode every message the given number of times
+	 */
+	private static void run(MessageCodec codec, List<Message> messages, int iterations) throws IOException {
+		for (int i = 0; i < iterations; i++) {
+			for (Message message : messages) {
+				decode(codec, encode(codec, message));
+			}
+		}
+	}
+
+	/**
+	 * Messages of every command, as sent by the components. A command 
+	 * whose arguments change needs its samples changed here as well
+	 */
+	private static List<Message> sampleMessages() {
+		List<Message> messages = new ArrayList<Message>();
+		Performance performance = new Performance();
+		performance.setCpuLoad(0.37);
+		performance.setUncompletedTaskCount(5);
+		messages.add(new Message(Constants.RequestType.STATS, 12, performance));
+		messages.add(new Message(Constants.RequestType.NEW_TASK, 3, new PrimeCalculator2(1, 20000)));
+		messages.add(new Message(Constants.RequestType.NEW_TASK, 3, new PasswordBruteforce2("AB3")));
+		messages.add(new Message(Constants.RequestType.NEW_TASK, 3, new Timer(4, 20)));
+		Task urgent = new PrimeCalculator2(1, 500);
+		urgent.setPriority(3);
+		urgent.setDeadline(250);
+		messages.add(new Message(Constants.RequestType.NEW_TASK, 3, urgent));
+		messages.add(new Message(Constants.RequestType.NEW_TASK_BATCH, 3, 
+				new Task[] { new PrimeCalculator2(1, 20000), new PasswordBruteforce2("AB3"), urgent }));
+		messages.add(new Message(Constants.RequestType.ABORT, 3, 1045));
+		//the server asks the worker to give up tasks, the worker answers
+		messages.add(new Message(Constants.RequestType.REMOVE_TASK, 13, new int[] { 1045, 1046, 1050 }));
+		messages.add(new Message(Constants.RequestType.REMOVE_TASK, 12, new int[] { 1045, 1050 }, 13));
+		//from the worker, with the execution time, and passed on to the user
+		messages.add(new Message(Constants.RequestType.RESULT, 12, 1045, 2262, 0.93, 418L));
+		messages.add(new Message(Constants.RequestType.RESULT, 12, 1046, "AB3", 0.99, 2L));
+		messages.add(new Message(Constants.RequestType.RESULT, 12, 1047, null, 0.01, 0L));
+		messages.add(new Message(Constants.RequestType.RESULT, 12, 1045, 2262, 0.93));
+		messages.add(new Message(Constants.RequestType.RESULT_BATCH, 12, new int[] { 1045, 1046, 1047 },
+				new Object[] { 2262, "AB3", null }, new double[] { 0.93, 0.99, 0.01 }, new long[] { 418, 2, 0 }));
+		messages.add(new Message(Constants.RequestType.RESULT_BATCH, 12, new int[] { 1045, 1046 },
+				new Object[] { 2262, "AB3" }, new double[] { 0.93, 0.99 }));
+		messages.add(new Message(Constants.RequestType.BUSY, 3, new int[] { 7, 8, 9 }, 
+				(long) Constants.BUSY_RETRY_AFTER));
+		messages.add(new Message(Constants.RequestType.SYNC, Constants.NULL_ID, 20001, Constants.ClientType.WORKER));
+		messages.add(new Message(Constants.RequestType.SYNC, 12, 20001, Constants.ClientType.USER));
+		messages.add(new Message(Constants.RequestType.HANDSHAKE, (Object) null));
+		messages.add(new Message(Constants.RequestType.HANDSHAKE, 12));
+		messages.add(new Message(Constants.RequestType.SET_LOAD_LB, 3, 4));
+		//argument without a binary form
+		messages.add(new Message(Constants.RequestType.RESULT, 12, 1048, new ArrayList<Integer>(Arrays.asList(2, 3, 5)), 0.5));
+		for (int i = 0; i < messages.size(); i++) {
+			messages.get(i).setCorrelationId(i % 3 - 1);
+		}
+		return messages;
+	}
+
+	private static byte[] encode(MessageCodec codec, Message message) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeByte(codec.getTag());
+		codec.encode(message, out);
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	private static Message decode(MessageCodec codec, byte[] frame) throws IOException {
+		return codec.decode(new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1)));
+	}
+
+	/**
+	 * Do the messages carry the same information ?
+	 */
+	private static boolean sameMessage(Message expected, Message actual) {
+		if (expected.getCommand() != actual.getCommand()
+				|| expected.getCorrelationId() != actual.getCorrelationId()
+				|| expected.getArgs().length != actual.getArgs().length) {
+			return false;
+		}
+		for (int i = 0; i < expected.getArgs().length; i++) {
+			if (! sameValue(expected.getArgs()[i], actual.getArgs()[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameValue(Object expected, Object actual) {
+		if (expected instanceof Task && actual instanceof Task) {
+			Task e = (Task) expected;
+			Task a = (Task) actual;
+			return e.getClass() == a.getClass() && e.id == a.id
+					&& Objects.equals(e.description, a.description)
+					&& Objects.equals(e.result, a.result)
+					&& e.cpuShareUsed == a.cpuShareUsed && e.pendTime == a.pendTime
+					&& e.priority == a.priority && e.deadline == a.deadline;
+		}
+		if (expected instanceof Task[] && actual instanceof Task[]) {
+			Task[] e = (Task[]) expected;
+			Task[] a = (Task[]) actual;
+			if (e.length != a.length) {
+				return false;
+			}
+			for (int i = 0; i < e.length; i++) {
+				if (! sameValue(e[i], a[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (expected instanceof Performance && actual instanceof Performance) {
+			return expected.toString().equals(actual.toString());
+		}
+		return Objects.deepEquals(expected, actual);
+	}
+}
@@ -30,6 +30,195 @@ public final class Constants {
 	 */
 	public final static int THREADS_IN_WORKER = 4;
 	
+	/** The default number of lanes the server delivers messages with. 
+	 * Messages to different accounts are delivered concurrently by 
+	 * different lanes; messages to one account always go through the same
+	 * lane, in order */
+	public final static int PUBLISHER_LANES = 4;
+	
+	/** Time (in milliseconds) a worker holds a completed task's result, 
+	 * waiting for more results to send together (see RESULT_BATCH) */
+	public final static int RESULT_LINGER = 5;
+	
+	/** The largest number of results a worker sends together */
+	public final static int RESULT_BATCH_SIZE = 32;
+	
+	/** The number of completed RL balancer decisions kept for training 
+	 * (experience replay, see Server.RL.Learner) */
+	public final static int RL_REPLAY_CAPACITY = 4096;
+	
+	/** The number of decisions the RL balancer trains on at once */
+	public final static int RL_BATCH_SIZE = 32;
+	
+	/** Time (in milliseconds) that a component waits for the response to a
+	 * request sent over its persistent connection */
+	public final static int RESPONSE_TIMEOUT = 3000;
+	
+	/** Minimum time (in milliseconds) between two reports of spare capacity
+	 * by a worker that has run out of queued tasks (see REMOVE_TASK) */
+	public final static int SPARE_CAPACITY_REPORT_INTERVAL = 50;
+	
+	/** A task is backed up (see Speculation) once it has been running for
+	 * longer than this percentage of the latest tasks of its type took */
+	public final static int SPECULATION_PERCENTILE = 95;
+	
+	/** The number of latest completion times kept per task class and size
+	 * class for speculation */
+	public final static int SPECULATION_HISTORY = 256;
+	
+	/** The number of tasks of a class and size class that have to complete
+	 * before such tasks are backed up */
+	public final static int SPECULATION_MIN_SAMPLES = 20;
+	
+	/** Time (in milliseconds) between two checks for straggling tasks */
+	public final static int SPECULATION_INTERVAL = 100;
+	
+	/** Time (in milliseconds) a task without a deadline is placed within at 
+	 * the latest, ahead of the tasks submitted later. It is divided by 
+	 * (1 + priority), so the tasks of a higher priority overtake it only 
+	 * for this long (see Task.setPriority) */
+	public final static int TASK_DEFAULT_SLACK = 60000;
+	
+	/** The number of tasks a user may have on the server (submitted, and 
+	 * not completed or aborted yet). Further tasks are refused (see BUSY), 
+	 * and the user holds them back until its tasks complete. Set with the 
+	 * "tasks.max.per.user" system property */
+	public final static int MAX_TASKS_IN_FLIGHT_PER_USER = 
+			Integer.getInteger("tasks.max.per.user", 1000);
+	
+	/** The number of tasks the server holds at most, from all the users. 
+	 * Set with the "tasks.max" system property */
+	public final static int MAX_TASKS_IN_FLIGHT = Integer.getInteger("tasks.max", 20000);
+	
+	/** Time (in milliseconds) a user waits before sending the tasks refused 
+	 * by the server again (see BUSY) */
+	public final static int BUSY_RETRY_AFTER = 100;
+	
+	/** Time (in milliseconds) the server's rolling statistics cover (see
+	 * ServerStats) */
+	public final static int STATS_WINDOW = 60000;
+	
+	/** The number of slots the rolling statistics are kept in. The oldest
+	 * slot is dropped as a whole, so the window covers between 
+	 * STATS_WINDOW * (1 - 1/STATS_WINDOW_SLOTS) and STATS_WINDOW */
+	public final static int STATS_WINDOW_SLOTS = 12;
+	
+	/** The number of latest completed tasks the server keeps for 
+	 * inspection */
+	public final static int RECENT_TASKS = 256;
+	
+	/** Weight of the latest task in the moving averages of the cost of the
+	 * task types (see Server.CostModel) */
+	public final static double COST_MODEL_ALPHA = 0.2;
+	
+	/** The number of tasks of a size class that have to complete before
+	 * their own cost estimate is used instead of their class's */
+	public final static int COST_MODEL_MIN_SAMPLES = 5;
+	
+	/** Delay (in milliseconds) before the first attempt to re-establish
+	 * a dropped connection to the server. The delay doubles after every 
+	 * failed attempt, up to RECONNECT_MAX_DELAY */
+	public final static int RECONNECT_DELAY = 500;
+	
+	/** Upper bound (in milliseconds) of the delay between attempts to 
+	 * re-establish a dropped connection to the server */
+	public final static int RECONNECT_MAX_DELAY = 10000;
+	
+	/** The largest frame (in bytes) accepted from a connection. Anything
+	 * larger is considered a corrupted stream and the connection is dropped */
+	public final static int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	
+	/** Number of threads moving bytes of the connections accepted by
+	 * a selector-driven gate (see IoMode.NIO) */
+	public final static int IO_THREADS = 2;
+	
+	/** Number of threads decoding and handling messages received by
+	 * a selector-driven gate (see IoMode.NIO) */
+	public final static int DECODER_THREADS = 4;
+	
+	/**
+	 * This Enum defines how the server and the listeners of the workers and
+	 * users serve accepted connections. The mode is chosen with the
+	 * "io.mode" system property (e.g. -Dio.mode=threads)*/
+	public enum IoMode {
+		/** a dedicated thread per accepted connection */
+		THREADS,
+		/** a dedicated virtual thread per accepted connection (Java 21+;
+		 * platform threads are used on older runtimes) */
+		VIRTUAL,
+		/** a selector with a small fixed pool of I/O threads */
+		NIO;
+		
+		/**
+		 * Accessor
+		 * @return - mode requested with the "io.mode" system property,
+		 * 			 NIO if none (or unknown) was requested
+		 */
+		public static IoMode current() {
+			String mode = System.getProperty("io.mode", NIO.name());
+			try {
+				return valueOf(mode.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown io.mode " + mode + ", using " + NIO);
+				return NIO;
+			}
+		}
+	}
+	
+	/**
+	 * This Enum defines how messages are encoded on the wire. The codec is
+	 * chosen with the "wire.codec" system property (e.g. -Dwire.codec=java).
+	 * Received frames are always decoded with the codec that encoded them*/
+	public enum WireCodec {
+		/** standard Java serialization (see JavaSerializationCodec) */
+		JAVA,
+		/** compact binary encoding (see BinaryMessageCodec) */
+		BINARY;
+		
+		/**
+		 * Accessor
+		 * @return - codec requested with the "wire.codec" system property,
+		 * 			 BINARY if none (or unknown) was requested
+		 */
+		public static WireCodec current() {
+			String codec = System.getProperty("wire.codec", BINARY.name());
+			try {
+				return valueOf(codec.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown wire.codec " + codec + ", using " + BINARY);
+				return BINARY;
+			}
+		}
+	}
+	
+	/**
+	 * This Enum defines whether the server backs up straggling tasks: a task
+	 * that has been running longer than SPECULATION_PERCENTILE of the tasks
+	 * of its type is also sent to a worker with a free thread, the first
+	 * result is passed on and the other copy is aborted. Chosen with the
+	 * "speculation" system property (e.g. -Dspeculation=on)*/
+	public enum Speculation {
+		/** every task runs on a single worker */
+		OFF,
+		/** straggling tasks are backed up */
+		ON;
+		
+		/**
+		 * Accessor
+		 * @return - mode requested with the "speculation" system property,
+		 * 			 OFF if none (or unknown) was requested
+		 */
+		public static Speculation current() {
+			String mode = System.getProperty("speculation", OFF.name());
+			try {
+				return valueOf(mode.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown speculation " + mode + ", using " + OFF);
+				return OFF;
+			}
+		}
+	}
+	
 	/**
 	 * This Enum defines the types of clients that the server works with*/
 	public enum ClientType {
@@ -56,19 +245,37 @@ public final class Constants {
 		NEW_TASK, 
 		
 		/** The message contains a computational task that has been previously 
-		 * submitted that should be cancelled. */
+		 * submitted that should be cancelled. 
+		 * Sent by a user:
+		 *  args[0] - user ID
+		 *  args[1] - task ID (as assigned by the user)
+		 * Passed on by the server to the worker executing the task:
+		 *  args[0] - user ID
+		 *  args[1] - task ID (as assigned by the server)
+		 * No result is sent for an aborted task. A result that crosses the
+		 * ABORT on its way is dropped by the server. */
 		ABORT, 
 		
-		/** The message contains a computational task that needs to be removed 
+		/** The message contains computational tasks that need to be removed 
 		 * from the worker's queue per server's request as a result of 
-		 * reassignment due to load balancing. */
+		 * reassignment due to load balancing (work stealing).
+		 * Sent by the server to the worker holding the tasks:
+		 *  args[0] - ID of the worker the tasks are moved to
+		 *  args[1] - int[] IDs of the tasks to remove
+		 * The worker answers with the tasks it has given up (the ones that
+		 * had not started yet):
+		 *  args[0] - worker ID
+		 *  args[1] - int[] IDs of the removed tasks
+		 *  args[2] - ID of the worker the tasks are moved to */
 		REMOVE_TASK, 
 		
 		/** The message contains a result of computational task.
 		 *  args[0] - worker ID
 		 *  args[1] - task ID
 		 *  args[2] - result object 
-		 *  args[3] - fraction of CPU used during task execution */
+		 *  args[3] - fraction of CPU used during task execution
+		 *  args[4] - time (in milliseconds) the execution took (set by the 
+		 *  		  workers) */
 		RESULT, 
 		
 		/** The client sends this type of message upon startup to update its 
@@ -93,11 +300,39 @@ public final class Constants {
 				2: fittingCpuShareLoadBalancer
 				3: minCpuShareLoadBalancer
 				4: minCpuLoadQueueBalancer
+				5: reinforcement learner agent
+				6: joinShortestExpectedDelayBalancer
 		 */
-		SET_LOAD_LB
+		SET_LOAD_LB,
+		/** The message contains a number of new computational tasks. 
+		 * Sent by a user to submit the tasks at once, and by the server to
+		 * hand a worker all the tasks of one batch placed on it.
+		 * arguments[1]: Task[] tasks to run*/
+		NEW_TASK_BATCH,
+		/** The message contains the results of a number of computational 
+		 * tasks. Sent by a worker for the tasks completed within a short 
+		 * window, and by the server to pass a user all of them that are 
+		 * his at once.
+		 *  args[0] - worker ID
+		 *  args[1] - int[] task IDs
+		 *  args[2] - Object[] result objects
+		 *  args[3] - double[] fractions of CPU used during task execution
+		 *  args[4] - long[] times (in milliseconds) the executions took 
+		 *  		  (sent by the workers only) */
+		RESULT_BATCH,
+		
+		/** The server has refused new tasks: the user has 
+		 * MAX_TASKS_IN_FLIGHT_PER_USER tasks on the server already, or the
+		 * server holds MAX_TASKS_IN_FLIGHT tasks. Sent by the server to the 
+		 * user in answer to NEW_TASK or NEW_TASK_BATCH:
+		 *  args[0] - user ID
+		 *  args[1] - int[] IDs of the refused tasks (as assigned by the user)
+		 *  args[2] - time (in milliseconds) to wait before sending them 
+		 *  		  again */
+		BUSY
 	}
 	
-	public static final int NUMBER_OF_BALANCING_ALGORITHMS = 5;
+	public static final int NUMBER_OF_BALANCING_ALGORITHMS = 7;
 	
 	/* TASK LIMITATIONS */
 	
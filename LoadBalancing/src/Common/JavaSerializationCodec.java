@@ -0,0 +1,40 @@
+package Common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Encodes messages with the standard Java serialization. Handles any
+ * serializable argument, at the cost of much larger frames and slower
+ * encoding than BinaryMessageCodec. Kept as a fallback (-Dwire.codec=java).
+ */
+public class JavaSerializationCodec implements MessageCodec {
+
+	/** Tag of the frames encoded by this codec */
+	public static final byte TAG = 1;
+
+	@Override
+	public byte getTag() {
+		return TAG;
+	}
+
+	@Override
+	public void encode(Message message, DataOutputStream out) throws IOException {
+		ObjectOutputStream ooStream = new ObjectOutputStream(out);
+		ooStream.writeObject(message);
+		ooStream.flush();
+	}
+
+	@Override
+	public Message decode(DataInputStream in) throws IOException {
+		ObjectInputStream oiStream = new ObjectInputStream(in);
+		try {
+			return (Message) oiStream.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Frame does not contain a valid message: " + e.getMessage());
+		}
+	}
+}
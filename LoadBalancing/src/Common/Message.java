@@ -18,6 +18,12 @@ public class Message implements Serializable {
 	 *  is identification info about the sender */
 	private final Object[] arguments;
 	
+	/** Pairs a request with its response on a persistent connection.
+	 *  0 - the message is not a part of an exchange,
+	 *  positive - the sender waits for a response,
+	 *  negative - response to the request with the opposite id */
+	private int correlationId = 0;
+	
 	public Message(Constants.RequestType cmd, Object... args) {
 		command = cmd;
 		arguments = args;
@@ -37,6 +43,21 @@ public class Message implements Serializable {
 		return arguments;
 	}
 	
+	/**
+	 * Accessor
+	 */
+	public int getCorrelationId() {
+		return correlationId;
+	}
+	
+	/**
+	 * Mark the message as a part of a request/response exchange
+	 * @param id - correlation id of the exchange
+	 */
+	public void setCorrelationId(int id) {
+		correlationId = id;
+	}
+	
 	@Override
 	public String toString(){
 		String res = "";
@@ -0,0 +1,200 @@
+package Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived duplex connection between two system components.
+ * Each message travels in its own frame (length of the message followed
+ * by the encoded message, see MessageCodec), so any number of messages can be exchanged
+ * over one socket in both directions. A request can be correlated with
+ * its response, which lets one side wait for a reply while unrelated
+ * messages keep flowing over the same connection.
+ * Subclasses define how frames are carried: over a blocking socket
+ * (SocketMessageChannel) or over a selector-driven connection (SelectorGate).
+ */
+public abstract class MessageChannel {
+
+	/** Placed into the response slots of the requests that will never
+	 * be answered because the channel was closed */
+	private static final Message CHANNEL_CLOSED =
+			new Message(Constants.RequestType.HANDSHAKE);
+
+	/** Codecs, frames are decoded with */
+	private static final MessageCodec BINARY_CODEC = new BinaryMessageCodec();
+	private static final MessageCodec JAVA_CODEC = new JavaSerializationCodec();
+
+	/** Codec, messages are encoded with (see Constants.WireCodec) */
+	private static final MessageCodec CODEC =
+			Constants.WireCodec.current() == Constants.WireCodec.JAVA ? JAVA_CODEC : BINARY_CODEC;
+
+	/** Source of correlation ids for the requests sent over this channel */
+	private final AtomicInteger nextCorrelationId = new AtomicInteger(0);
+
+	/** Requests waiting for the response
+	 * Key - correlation id of the request
+	 * Value - slot the response is placed into */
+	private final Map<Integer, BlockingQueue<Message>> awaitingResponse =
+			new ConcurrentHashMap<Integer, BlockingQueue<Message>>();
+
+	/**
+	 * Accessor
+	 * @return - address of the other side of the connection
+	 */
+	public abstract InetAddress getRemoteAddress();
+
+	/**
+	 * Is the connection still usable ?
+	 * @return true, if the channel was not closed
+	 * 		   false, otherwise
+	 */
+	public abstract boolean isOpen();
+
+	/**
+	 * Pass one frame to the other side. Frames written by different threads 
+	 * must not interleave.
+	 * @param frame - frame content
+	 * @throws IOException - if connection is broken
+	 */
+	protected abstract void writeFrame(byte[] frame) throws IOException;
+
+	/**
+	 * Release the underlying connection
+	 */
+	protected abstract void closeConnection();
+
+	/**
+	 * Send a single message. Does not wait for any response
+	 * @param message - message to send
+	 * @throws IOException - if connection is broken
+	 */
+	public void send(Message message) throws IOException {
+		writeFrame(encode(message));
+	}
+
+	/**
+	 * Send a request and wait for the response to it. The response is
+	 * picked up by whichever thread is receiving from this channel,
+	 * so some thread has to be running the receiving loop.
+	 * @param message - request to send
+	 * @param timeout - time (in milliseconds) to wait for the response
+	 * @return response to the request
+	 * @throws IOException - if connection is broken, or no response was
+	 * 						 received in time
+	 */
+	public Message request(Message message, long timeout) throws IOException {
+		int correlationId = nextCorrelationId.incrementAndGet() & Integer.MAX_VALUE;
+		if (correlationId == 0) {
+			correlationId = nextCorrelationId.incrementAndGet();
+		}
+		BlockingQueue<Message> slot = new ArrayBlockingQueue<Message>(1);
+		awaitingResponse.put(correlationId, slot);
+		try {
+			message.setCorrelationId(correlationId);
+			send(message);
+			Message response = slot.poll(timeout, TimeUnit.MILLISECONDS);
+			if (response == null) {
+				throw new IOException("No response to " + message.getCommand()
+						+ " in " + timeout + " ms");
+			} else if (response == CHANNEL_CLOSED) {
+				throw new IOException("Connection closed before the response to "
+						+ message.getCommand() + " was received");
+			}
+			return response;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for the response to "
+					+ message.getCommand());
+		} finally {
+			awaitingResponse.remove(correlationId);
+		}
+	}
+
+	/**
+	 * Send a response to the request received from this channel
+	 * @param request - received request
+	 * @param response - response to send
+	 * @throws IOException - if connection is broken
+	 */
+	public void reply(Message request, Message response) throws IOException {
+		response.setCorrelationId(- request.getCorrelationId());
+		send(response);
+	}
+
+	/**
+	 * Interpret a frame received from the other side. A response to one of
+	 * the requests sent over this channel is handed over to the thread
+	 * waiting for it.
+	 * @param frame - frame content
+	 * @return received message, or
+	 * 		   null, if the message was a response someone waited for
+	 * @throws IOException - if frame does not contain a valid message
+	 */
+	protected Message accept(byte[] frame) throws IOException {
+		Message message = decode(frame);
+		if (message.getCorrelationId() < 0) {
+			BlockingQueue<Message> slot = awaitingResponse.remove(- message.getCorrelationId());
+			if (slot != null) {
+				slot.offer(message);
+				return null;
+			}
+		}
+		return message;
+	}
+
+	/**
+	 * Close the connection. Any requests waiting for the response fail.
+	 */
+	public void close() {
+		closeConnection();
+		for (BlockingQueue<Message> slot : awaitingResponse.values()) {
+			slot.offer(CHANNEL_CLOSED);
+		}
+	}
+
+	/**
+	 * Encode a message into a frame: the tag of the codec, followed by
+	 * the message encoded by it
+	 * @param message - message to encode
+	 * @return frame content
+	 * @throws IOException - if message can not be encoded
+	 */
+	private static byte[] encode(Message message) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeByte(CODEC.getTag());
+		CODEC.encode(message, out);
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Decode a message from a frame, using the codec it was encoded with
+	 * @param frame - frame content
+	 * @return message
+	 * @throws IOException - if frame does not contain a valid message
+	 */
+	private static Message decode(byte[] frame) throws IOException {
+		if (frame.length == 0) {
+			throw new IOException("Frame does not contain a valid message: empty frame");
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+		switch (frame[0]) {
+		case BinaryMessageCodec.TAG:
+			return BINARY_CODEC.decode(in);
+		case JavaSerializationCodec.TAG:
+			return JAVA_CODEC.decode(in);
+		default:
+			throw new IOException("Frame does not contain a valid message: unknown codec " + frame[0]);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package Common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Turns messages into the content of the frames sent over a MessageChannel
+ * and back. Every frame starts with the tag of the codec that encoded it,
+ * so the receiving side picks the matching codec and both codecs can be
+ * used over the same connection.
+ */
+public interface MessageCodec {
+
+	/**
+	 * Accessor
+	 * @return - tag identifying this codec in the frames it encodes
+	 */
+	public byte getTag();
+
+	/**
+	 * Write the message (without the codec tag)
+	 * @param message - message to encode
+	 * @param out - frame content
+	 * @throws IOException - if the message can not be encoded
+	 */
+	public void encode(Message message, DataOutputStream out) throws IOException;
+
+	/**
+	 * Read a message (the codec tag is already consumed)
+	 * @param in - frame content
+	 * @return decoded message
+	 * @throws IOException - if the frame does not contain a valid message
+	 */
+	public Message decode(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,17 @@
+package Common;
+
+/**
+ * Receives the messages the server pushes over a persistent connection
+ * (see ServerLink), such as the results sent to a client or the tasks
+ * assigned to a worker.
+ */
+public interface MessageHandler {
+
+	/**
+	 * Message was pushed by the other side of a persistent connection,
+	 * act on it
+	 * @param message - received message
+	 */
+	public void messageReceived(Message message);
+	
+}
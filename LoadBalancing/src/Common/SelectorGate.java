@@ -0,0 +1,473 @@
+package Common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking entry point, accepting connections on a server socket
+ * channel. Instead of a thread per connection, all connections are served
+ * by a small fixed number of I/O threads, each of them running its own
+ * selector. I/O threads only move bytes: complete frames are decoded and
+ * handed to the connection's handler by a separate pool of decoder threads.
+ * Frames of one connection are always handled one at a time, in the order
+ * they were received.
+ */
+public class SelectorGate implements Runnable {
+
+	/**
+	 * Processes messages received over one connection
+	 */
+	public interface ConnectionHandler {
+
+		/**
+		 * Invoked for each message received over the connection
+		 * (except the responses to the requests sent over it)
+		 * @param channel - connection the message was received from
+		 * @param message - received message
+		 */
+		public void messageReceived(MessageChannel channel, Message message);
+
+		/**
+		 * Invoked once, after the connection was closed (by either side)
+		 * @param channel - closed connection
+		 */
+		public void connectionClosed(MessageChannel channel);
+	}
+
+	/**
+	 * Creates a handler for every accepted connection
+	 */
+	public interface HandlerFactory {
+
+		/**
+		 * Invoked once for every accepted connection, before any message
+		 * is received over it
+		 * @param channel - accepted connection
+		 * @return handler for the messages received over the connection
+		 */
+		public ConnectionHandler connectionAccepted(MessageChannel channel);
+	}
+
+	/** Placed into the inbound queue of a connection after it was closed */
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	/** Channel the connections are accepted on */
+	private final ServerSocketChannel serverChannel;
+
+	/** Creates handlers for the accepted connections */
+	private final HandlerFactory factory;
+
+	/** Threads, moving the bytes of the accepted connections */
+	private final IoLoop[] ioLoops;
+
+	/** Threads, decoding and handling received frames */
+	private final ExecutorService decoders;
+
+	/** I/O thread the next accepted connection is handed to */
+	private int nextLoop = 0;
+
+	/**
+	 * Create a gate with the default number of I/O and decoder threads
+	 * @param _serverChannel - bound server socket channel
+	 * @param _factory - creates handlers for the accepted connections
+	 * @throws IOException - if selectors can not be opened
+	 */
+	public SelectorGate(ServerSocketChannel _serverChannel, HandlerFactory _factory) throws IOException {
+		this(_serverChannel, _factory, Constants.IO_THREADS, Constants.DECODER_THREADS);
+	}
+
+	/**
+	 * Create a gate
+	 * @param _serverChannel - bound server socket channel
+	 * @param _factory - creates handlers for the accepted connections
+	 * @param ioThreads - number of I/O threads
+	 * @param decoderThreads - number of decoder threads
+	 * @throws IOException - if selectors can not be opened
+	 */
+	public SelectorGate(ServerSocketChannel _serverChannel, HandlerFactory _factory,
+			int ioThreads, int decoderThreads) throws IOException {
+		serverChannel = _serverChannel;
+		factory = _factory;
+		ioLoops = new IoLoop[Math.max(1, ioThreads)];
+		for (int i = 0; i < ioLoops.length; i++) {
+			ioLoops[i] = new IoLoop();
+		}
+		final AtomicInteger decoderCount = new AtomicInteger(0);
+		decoders = Executors.newFixedThreadPool(Math.max(1, decoderThreads), r -> {
+			Thread thread = new Thread(r, "Decoder-" + decoderCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Open a non-blocking capable server socket on the given port.
+	 * The socket can be used both by a blocking acceptor and by a gate
+	 * (through its channel)
+	 * @param port - port to listen on
+	 * @return bound server socket
+	 * @throws IOException - if the port is not available
+	 */
+	public static ServerSocket bind(int port) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.socket().bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel.socket();
+	}
+
+	/**
+	 * Accept connections and spread them among I/O threads, until
+	 * the server socket channel is closed
+	 */
+	@Override
+	public void run() {
+		for (int i = 0; i < ioLoops.length; i++) {
+			Thread thread = new Thread(ioLoops[i], "IoLoop-" + serverChannel.socket().getLocalPort() + "-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		try (Selector acceptSelector = Selector.open()) {
+			serverChannel.configureBlocking(false);
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+			while (serverChannel.isOpen()) {
+				acceptSelector.select(1000);
+				Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					keys.next();
+					keys.remove();
+					SocketChannel socketChannel;
+					while ((socketChannel = serverChannel.accept()) != null) {
+						accepted(socketChannel);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (serverChannel.isOpen()) {
+				e.printStackTrace();
+			}
+		}
+		for (IoLoop loop : ioLoops) {
+			loop.shutdown();
+		}
+		decoders.shutdown();
+	}
+
+	/**
+	 * Set up accepted connection and hand it to the next I/O thread
+	 * @param socketChannel - accepted connection
+	 */
+	private void accepted(SocketChannel socketChannel) {
+		try {
+			socketChannel.configureBlocking(false);
+			socketChannel.socket().setTcpNoDelay(true);
+		} catch (IOException e) {
+			try {
+				socketChannel.close();
+			} catch (IOException e1) {}
+			return;
+		}
+		IoLoop loop = ioLoops[nextLoop];
+		nextLoop = (nextLoop + 1) % ioLoops.length;
+		NioMessageChannel channel = new NioMessageChannel(socketChannel, loop);
+		channel.handler = factory.connectionAccepted(channel);
+		loop.register(channel);
+	}
+
+	/**
+	 * I/O thread. Reads incoming frames and writes outgoing ones for all
+	 * connections registered with its selector
+	 */
+	private class IoLoop implements Runnable {
+
+		/** Selector of this thread */
+		private final Selector selector;
+
+		/** Connections waiting to be registered with the selector */
+		private final Queue<NioMessageChannel> registrations =
+				new ConcurrentLinkedQueue<NioMessageChannel>();
+
+		/** Connections that have frames to write */
+		private final Queue<NioMessageChannel> writeRequests =
+				new ConcurrentLinkedQueue<NioMessageChannel>();
+
+		public IoLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Register a new connection with this thread
+		 * @param channel - new connection
+		 */
+		public void register(NioMessageChannel channel) {
+			registrations.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Let the thread know that the connection has frames to write
+		 * @param channel - connection with pending frames
+		 */
+		public void requestWrite(NioMessageChannel channel) {
+			writeRequests.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Stop the thread and close its connections
+		 */
+		public void shutdown() {
+			try {
+				selector.close();
+			} catch (IOException e) {}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (selector.isOpen()) {
+					selector.select(1000);
+					NioMessageChannel channel;
+					while ((channel = registrations.poll()) != null) {
+						try {
+							channel.key = channel.socketChannel.register(selector, SelectionKey.OP_READ, channel);
+						} catch (IOException e) {
+							channel.close();
+						}
+					}
+					while ((channel = writeRequests.poll()) != null) {
+						channel.flush();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						channel = (NioMessageChannel) key.attachment();
+						if (key.isValid() && key.isWritable()) {
+							channel.flush();
+						}
+						if (key.isValid() && key.isReadable()) {
+							channel.read();
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				if (serverChannel.isOpen()) {
+					e.printStackTrace();
+				}
+			}
+			try {
+				for (SelectionKey key : selector.keys()) {
+					((NioMessageChannel) key.attachment()).close();
+				}
+			} catch (ClosedSelectorException e) {}
+		}
+	}
+
+	/**
+	 * Connection, served by one of the I/O threads
+	 */
+	private class NioMessageChannel extends MessageChannel {
+
+		/** Underlying non-blocking connection */
+		private final SocketChannel socketChannel;
+
+		/** I/O thread, serving this connection */
+		private final IoLoop loop;
+
+		/** Handles messages received over this connection */
+		private volatile ConnectionHandler handler;
+
+		/** Registration of the connection with the I/O thread's selector */
+		private volatile SelectionKey key;
+
+		/** Length of the frame being received */
+		private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+		/** Content of the frame being received, null while reading the length */
+		private ByteBuffer frameBuffer = null;
+
+		/** Frames waiting to be written */
+		private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		/** Received frames waiting to be decoded */
+		private final Queue<byte[]> inbound = new ConcurrentLinkedQueue<byte[]>();
+
+		/** Set while one of the decoder threads is processing inbound frames */
+		private final AtomicBoolean decoding = new AtomicBoolean(false);
+
+		/** Set once the connection is closed */
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		public NioMessageChannel(SocketChannel _socketChannel, IoLoop _loop) {
+			socketChannel = _socketChannel;
+			loop = _loop;
+		}
+
+		@Override
+		public InetAddress getRemoteAddress() {
+			return socketChannel.socket().getInetAddress();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return ! closed.get();
+		}
+
+		@Override
+		protected void writeFrame(byte[] frame) throws IOException {
+			if (closed.get()) {
+				throw new IOException("Connection is closed");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+			buffer.putInt(frame.length).put(frame).flip();
+			outbound.add(buffer);
+			loop.requestWrite(this);
+		}
+
+		@Override
+		protected void closeConnection() {
+			if (closed.compareAndSet(false, true)) {
+				try {
+					socketChannel.close();
+				} catch (IOException e) {}
+				inbound.add(END_OF_STREAM);
+				scheduleDecoding();
+			}
+		}
+
+		/**
+		 * Read whatever is available from the connection (I/O thread only)
+		 */
+		private void read() {
+			try {
+				while (true) {
+					if (frameBuffer == null) {
+						if (socketChannel.read(lengthBuffer) < 0) {
+							close();
+							return;
+						}
+						if (lengthBuffer.hasRemaining()) {
+							return;
+						}
+						lengthBuffer.flip();
+						int length = lengthBuffer.getInt();
+						lengthBuffer.clear();
+						if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+							System.err.println("Invalid frame length " + length
+									+ " received from " + getRemoteAddress());
+							close();
+							return;
+						}
+						frameBuffer = ByteBuffer.allocate(length);
+					}
+					if (frameBuffer.hasRemaining() && socketChannel.read(frameBuffer) < 0) {
+						close();
+						return;
+					}
+					if (frameBuffer.hasRemaining()) {
+						return;
+					}
+					inbound.add(frameBuffer.array());
+					frameBuffer = null;
+					scheduleDecoding();
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Write as many pending frames as the connection accepts
+		 * (I/O thread only). If some remain, wait until the connection
+		 * becomes writable again
+		 */
+		private void flush() {
+			SelectionKey myKey = key;
+			if (myKey == null || ! myKey.isValid()) {
+				if (closed.get()) {
+					outbound.clear();
+				} else if (myKey == null) {
+					//not registered yet, try again after the registration
+					loop.requestWrite(this);
+				}
+				return;
+			}
+			try {
+				ByteBuffer buffer;
+				while ((buffer = outbound.peek()) != null) {
+					socketChannel.write(buffer);
+					if (buffer.hasRemaining()) {
+						myKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+					outbound.poll();
+				}
+				myKey.interestOps(SelectionKey.OP_READ);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Make sure that one of the decoder threads processes inbound frames
+		 */
+		private void scheduleDecoding() {
+			if (decoding.compareAndSet(false, true)) {
+				try {
+					decoders.execute(this::decode);
+				} catch (java.util.concurrent.RejectedExecutionException e) {
+					decoding.set(false);
+				}
+			}
+		}
+
+		/**
+		 * Decode inbound frames and pass them to the handler, one at a time
+		 */
+		private void decode() {
+			while (true) {
+				byte[] frame;
+				while ((frame = inbound.poll()) != null) {
+					if (frame == END_OF_STREAM) {
+						handler.connectionClosed(this);
+						continue;
+					}
+					try {
+						Message message = accept(frame);
+						if (message != null) {
+							handler.messageReceived(this, message);
+						}
+					} catch (IOException e) {
+						System.err.println(e.getMessage());
+						close();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				decoding.set(false);
+				if (inbound.isEmpty() || ! decoding.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package Common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Persistent connection from a client or a worker to the server.
+ * The connection is opened on first use and kept open for all further
+ * messages in both directions. If it drops, it is re-established in the
+ * background, and the owner is announced to the server (SYNC) again on
+ * every new connection, so the server keeps pushing messages over it.
+ * Messages pushed by the server are passed to the owner's handler.
+ */
+public class ServerLink {
+
+	/** Server's address */
+	private final InetAddress serverAddress;
+
+	/** Server's port */
+	private final int serverPort;
+
+	/** Receives messages pushed by the server */
+	private final MessageHandler handler;
+
+	/** Current connection, null if not connected */
+	private volatile SocketMessageChannel channel = null;
+
+	/** Message announcing the owner to the server.
+	 * It is sent as the first request on every new connection */
+	private volatile Message syncMessage = null;
+
+	/** Flag, indicating that the link should not be re-established */
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a link to the server. Connection is not opened until needed
+	 * @param address - server's ip address
+	 * @param port - server's receiving port
+	 * @param _handler - receives messages pushed by the server
+	 */
+	public ServerLink(InetAddress address, int port, MessageHandler _handler) {
+		serverAddress = address;
+		serverPort = port;
+		handler = _handler;
+	}
+
+	/**
+	 * Set the message the owner announces itself with.
+	 * The message is re-sent each time connection is re-established
+	 * @param message - SYNC message
+	 */
+	public void setSyncMessage(Message message) {
+		syncMessage = message;
+	}
+
+	/**
+	 * Open the connection, if it is not opened already, and announce the
+	 * owner to the server. The server's response to the announcement is
+	 * passed to the handler.
+	 * @return opened connection
+	 * @throws IOException - if server is not reachable
+	 */
+	public synchronized MessageChannel connect() throws IOException {
+		if (channel != null && channel.isOpen()) {
+			return channel;
+		}
+		SocketMessageChannel newChannel = new SocketMessageChannel(new Socket(serverAddress, serverPort));
+		channel = newChannel;
+		Thread reader = new Thread(new Reader(newChannel));
+		reader.setDaemon(true);
+		reader.start();
+		Message sync = syncMessage;
+		if (sync != null) {
+			try {
+				Message response = newChannel.request(sync, Constants.RESPONSE_TIMEOUT);
+				handler.messageReceived(response);
+			} catch (IOException e) {
+				newChannel.close();
+				throw e;
+			}
+		}
+		return newChannel;
+	}
+
+	/**
+	 * Drop current connection (if any) and open a new one
+	 * @return opened connection
+	 * @throws IOException - if server is not reachable
+	 */
+	public synchronized MessageChannel reconnect() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		return connect();
+	}
+
+	/**
+	 * Send a message to the server. If current connection turns out to be
+	 * broken, the message is re-sent once over a new connection
+	 * @param message - message to send
+	 * @throws IOException - if server is not reachable
+	 */
+	public void send(Message message) throws IOException {
+		MessageChannel current = currentChannel();
+		try {
+			current.send(message);
+		} catch (IOException e) {
+			current.close();
+			currentChannel().send(message);
+		}
+	}
+
+	/**
+	 * Send a response to the request pushed by the server
+	 * @param request - received request
+	 * @param response - response to send
+	 * @throws IOException - if server is not reachable
+	 */
+	public void reply(Message request, Message response) throws IOException {
+		response.setCorrelationId(- request.getCorrelationId());
+		send(response);
+	}
+
+	/**
+	 * Send a request to the server and wait for the response
+	 * @param message - request to send
+	 * @return server's response
+	 * @throws IOException - if server is not reachable or did not respond
+	 */
+	public Message request(Message message) throws IOException {
+		return currentChannel().request(message, Constants.RESPONSE_TIMEOUT);
+	}
+
+	/**
+	 * Close the connection for good
+	 */
+	public void close() {
+		closed = true;
+		MessageChannel current = channel;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * Accessor, that opens the connection if necessary
+	 * @return opened connection
+	 * @throws IOException - if server is not reachable
+	 */
+	private MessageChannel currentChannel() throws IOException {
+		MessageChannel current = channel;
+		if (current != null && current.isOpen()) {
+			return current;
+		}
+		if (closed) {
+			throw new IOException("Link to the server is closed");
+		}
+		return connect();
+	}
+
+	/**
+	 * Receives messages pushed over one connection and passes them to the
+	 * handler. When the connection drops, keeps trying to re-establish it
+	 * (unless the link was closed or another connection replaced it)
+	 */
+	private class Reader implements Runnable {
+
+		/** Connection to read from */
+		private final SocketMessageChannel myChannel;
+
+		public Reader(SocketMessageChannel _channel) {
+			myChannel = _channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (myChannel.isOpen()) {
+					handler.messageReceived(myChannel.receive());
+				}
+			} catch (IOException e) {
+				myChannel.close();
+			}
+			int delay = Constants.RECONNECT_DELAY;
+			while (! closed && channel == myChannel) {
+				try {
+					Thread.sleep(delay);
+					connect();
+					System.out.println("Connection to the server re-established.");
+					return;
+				} catch (IOException e) {
+					delay = Math.min(delay * 2, Constants.RECONNECT_MAX_DELAY);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
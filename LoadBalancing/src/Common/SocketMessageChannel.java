@@ -0,0 +1,95 @@
+package Common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Message channel over a blocking socket. Messages are received by
+ * a thread running the receiving loop (see receive()).
+ */
+public class SocketMessageChannel extends MessageChannel {
+
+	/** Socket, carrying the connection */
+	private final Socket socket;
+
+	/** Frames are read from this stream */
+	private final DataInputStream in;
+
+	/** Frames are written to this stream */
+	private final DataOutputStream out;
+
+	/** Held while a frame is written, so frames of different messages
+	 * never interleave. A lock (rather than a monitor) does not pin
+	 * a virtual thread to its carrier while it blocks on the socket */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/**
+	 * Create a channel on top of an opened socket
+	 * @param _socket - connected socket
+	 * @throws IOException - if socket's streams are not available
+	 */
+	public SocketMessageChannel(Socket _socket) throws IOException {
+		socket = _socket;
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	@Override
+	public InetAddress getRemoteAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return ! socket.isClosed();
+	}
+
+	@Override
+	protected void writeFrame(byte[] frame) throws IOException {
+		writeLock.lock();
+		try {
+			out.writeInt(frame.length);
+			out.write(frame);
+			out.flush();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Receive the next message that is not a response to one of the
+	 * requests sent over this channel. Responses are handed over to the
+	 * threads waiting for them on the way.
+	 * @return received message
+	 * @throws IOException - if connection is broken
+	 */
+	public Message receive() throws IOException {
+		while (true) {
+			int length = in.readInt();
+			if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+				close();
+				throw new IOException("Invalid frame length: " + length);
+			}
+			byte[] frame = new byte[length];
+			in.readFully(frame);
+			Message message = accept(frame);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+	@Override
+	protected void closeConnection() {
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+}
@@ -1,6 +1,8 @@
 package Common;
 
 import java.awt.Desktop;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -43,10 +45,44 @@ public abstract class Task implements Callable<Task>, Comparable<Task>, Serializ
 	
 	protected double cpuShareUsed = -1;
 	
+	/** Time (in milliseconds) the execution of the task took, -1 until 
+	 * the task is executed */
+	protected long executionTime = -1;
+	
+	/** How urgent the task is, 0 (default) being the least urgent. Among 
+	 * the tasks without a deadline, the more urgent ones are placed first
+	 * (see Constants.TASK_DEFAULT_SLACK) */
+	protected int priority = 0;
+	
+	/** Time (in milliseconds from the submission) the result is wanted 
+	 * within, 0 (default) if none. The tasks with the earliest deadlines
+	 * are placed first */
+	protected long deadline = 0;
+	
 	public long getUID(){
 		return serialVersionUID;
 	}
 	
+	/**
+	 * Size class of the task among the tasks of its class. The tasks of
+	 * the same class and size class are expected to cost alike (see 
+	 * Server.CostModel)
+	 * @return - size class, 0 (default) if the size of the task is unknown
+	 */
+	public int getCostBucket() {
+		return 0;
+	}
+	
+	/**
+	 * Size class of a task parameter: the number of bits of the size, so
+	 * the sizes within a factor of two share a class
+	 * @param size - the size, e.g. the length of a range
+	 * @return - size class, 0 for 0 or less
+	 */
+	protected static int sizeBucket(long size) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(0, size));
+	}
+	
 	/**
 	 * Accessor
 	 * @return - description of the task
@@ -101,6 +137,35 @@ public abstract class Task implements Callable<Task>, Comparable<Task>, Serializ
 		return cpuShareUsed;
 	}
 	
+	public long getExecutionTime() {
+		return executionTime;
+	}
+	
+	public int getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Set how urgent the task is
+	 * @param _priority - 0 (default) or higher for the more urgent tasks
+	 */
+	public void setPriority(int _priority) {
+		priority = Math.max(0, _priority);
+	}
+	
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * Set the time the result is wanted within
+	 * @param _deadline - time (in milliseconds) from the submission of the
+	 * 					  task, 0 for no deadline
+	 */
+	public void setDeadline(long _deadline) {
+		deadline = Math.max(0, _deadline);
+	}
+	
 	/**
 	 * Default constructor creates a random id
 	 */
@@ -110,6 +175,49 @@ public abstract class Task implements Callable<Task>, Comparable<Task>, Serializ
 		description = String.format("Task type: %s, id: %d", this.getClass().getSimpleName(), id);
 	}
 	
+	/**
+	 * Restore a task from its binary form (see write).
+	 * Subclasses read their own parameters right after this.
+	 * @param in - source of the task's binary form
+	 * @throws IOException - if the source does not contain a valid task
+	 */
+	protected Task(DataInput in) throws IOException {
+		super();
+		id = BinaryMessageCodec.readVarInt(in);
+		description = BinaryMessageCodec.readString(in);
+		cpuShareUsed = in.readDouble();
+		pendTime = BinaryMessageCodec.readVarLong(in);
+		WaitingTime = BinaryMessageCodec.readVarLong(in);
+		priority = BinaryMessageCodec.readVarInt(in);
+		deadline = BinaryMessageCodec.readVarLong(in);
+	}
+	
+	/**
+	 * Write the binary form of the task: its state, followed by
+	 * the parameters of the particular task type (see writeParameters).
+	 * The result is not a part of it.
+	 * @param out - destination
+	 * @throws IOException - if the task can not be written
+	 */
+	public final void write(DataOutput out) throws IOException {
+		BinaryMessageCodec.writeVarInt(out, id);
+		BinaryMessageCodec.writeString(out, description);
+		out.writeDouble(cpuShareUsed);
+		BinaryMessageCodec.writeVarLong(out, pendTime);
+		BinaryMessageCodec.writeVarLong(out, WaitingTime);
+		BinaryMessageCodec.writeVarInt(out, priority);
+		BinaryMessageCodec.writeVarLong(out, deadline);
+		writeParameters(out);
+	}
+	
+	/**
+	 * Write the parameters of the task. Each task type registered in 
+	 * Tasks.TaskTypes writes here whatever its DataInput constructor reads.
+	 * @param out - destination
+	 * @throws IOException - if the parameters can not be written
+	 */
+	protected void writeParameters(DataOutput out) throws IOException {}
+	
 	/**
 	 * Generic call method for all tasks. Attempts to create writer to write to files
 	 * and logs amount of time used for execution and CPU share used.
@@ -128,7 +236,7 @@ public abstract class Task implements Callable<Task>, Comparable<Task>, Serializ
 		WaitingTime=startTime-pendTime;
 		long cpuTimeUsedByTask = cpuTimeUsedEnd - cpuTimeUsedStart;
 		// adding 1 to cover to get ceiling value instead of floor
-		long executionTime = endTime - startTime + 1;
+		executionTime = endTime - startTime + 1;
 
 
 		cpuShareUsed = ((double)cpuTimeUsedByTask / Math.pow(10, 6)) / (double)executionTime;
@@ -161,10 +269,20 @@ public abstract class Task implements Callable<Task>, Comparable<Task>, Serializ
 	/**
 	 * Perform the essence functionality of the task.
 	 * Each task must implement own functionality here.
+	 * Long running tasks should check isCancelled now and then.
 	 * @return - result object
 	 */
 	public abstract Object runCoreLogic();
 	
+	/**
+	 * Was the task aborted while running ? If so, the task should return
+	 * as soon as possible, its result is discarded anyway.
+	 * @return true, if the thread executing the task was interrupted
+	 */
+	protected boolean isCancelled() {
+		return Thread.currentThread().isInterrupted();
+	}
+	
 	/**
 	 * Attempt to open a file, containing result for this task.
 	 */
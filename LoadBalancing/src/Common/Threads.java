@@ -0,0 +1,95 @@
+package Common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Starts the threads that serve connections. Depending on the mode chosen
+ * with the "io.mode" system property (see Constants.IoMode), such threads
+ * are either platform threads or virtual threads. Virtual threads are only
+ * available on Java 21+; on older runtimes platform threads are used.
+ */
+public final class Threads {
+
+	/** Thread.ofVirtual(), null if virtual threads are not available */
+	private static final Method OF_VIRTUAL;
+
+	/** Thread.Builder.name(String) */
+	private static final Method BUILDER_NAME;
+
+	/** Thread.Builder.start(Runnable) */
+	private static final Method BUILDER_START;
+
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderStart = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builder.getMethod("name", String.class);
+			builderStart = builder.getMethod("start", Runnable.class);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_START = builderStart;
+	}
+
+	private Threads() {}
+
+	/**
+	 * Are virtual threads available on this runtime ?
+	 * @return true, if virtual threads can be started
+	 * 		   false, otherwise
+	 */
+	public static boolean virtualThreadsSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Start a thread serving a connection, in the current mode
+	 * @param task - code to run
+	 * @param name - name of the thread
+	 * @return started thread
+	 */
+	public static Thread start(Runnable task, String name) {
+		if (Constants.IoMode.current() == Constants.IoMode.VIRTUAL) {
+			return startVirtual(task, name);
+		}
+		return startPlatform(task, name);
+	}
+
+	/**
+	 * Start a platform thread
+	 * @param task - code to run
+	 * @param name - name of the thread
+	 * @return started thread
+	 */
+	public static Thread startPlatform(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Start a virtual thread, or a platform thread if virtual threads
+	 * are not available
+	 * @param task - code to run
+	 * @param name - name of the thread
+	 * @return started thread
+	 */
+	public static Thread startVirtual(Runnable task, String name) {
+		if (OF_VIRTUAL == null) {
+			return startPlatform(task, name);
+		}
+		try {
+			Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+			return (Thread) BUILDER_START.invoke(builder, task);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			System.err.println("Failed to start a virtual thread: " + e.getMessage());
+			return startPlatform(task, name);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.net.InetAddress;
 
 import Common.Constants;
+import Common.MessageChannel;
 import Common.Performance;
 
 
@@ -36,6 +37,29 @@ public class Account implements Comparable<Account>,  Serializable{
 	Constants.ClientType _accountType;
 	
 	private Performance _performance;
+	
+	/** The persistent connection that this client keeps open with the server.
+	 * Messages for the client are pushed over it instead of connecting back 
+	 * to the client's location. Null while the client is not connected.
+	 */
+	private transient volatile MessageChannel _channel;
+	
+	/** The number of tasks assigned to this worker and not completed yet.
+	 * Maintained as the tasks are assigned and completed, so the load 
+	 * balancers do not have to count them.
+	 */
+	private transient int _assignedTaskCount;
+	
+	/** The estimated CPU share of all the tasks assigned to this worker and 
+	 * not completed yet (see _assignedTaskCount).
+	 */
+	private transient double _cpuBacklog;
+	
+	/** The estimated execution time (in milliseconds) of all the tasks 
+	 * assigned to this worker and not completed yet (see 
+	 * _assignedTaskCount).
+	 */
+	private transient double _expectedWork;
 	/**
 	 * Gets the port number that this client expects the server's connections.
 	 *
@@ -138,4 +162,99 @@ public class Account implements Comparable<Account>,  Serializable{
 	public void setPerformance(Performance _performance) {
 		this._performance = _performance;
 	}
+	
+	/**
+	 * Accounts for a task assigned to this worker.
+	 *
+	 * @param estimatedCpuShare the estimated CPU share of the task
+	 * @param expectedServiceTime the estimated execution time of the task
+	 */
+	public synchronized void assignTask(double estimatedCpuShare, double expectedServiceTime) {
+		_assignedTaskCount++;
+		_cpuBacklog += estimatedCpuShare;
+		_expectedWork += expectedServiceTime;
+	}
+	
+	/**
+	 * Accounts for a task that is no longer assigned to this worker 
+	 * (completed or taken away).
+	 *
+	 * @param estimatedCpuShare the CPU share the task was assigned with
+	 * @param expectedServiceTime the execution time the task was assigned with
+	 */
+	public synchronized void releaseTask(double estimatedCpuShare, double expectedServiceTime) {
+		_assignedTaskCount--;
+		_cpuBacklog -= estimatedCpuShare;
+		_expectedWork -= expectedServiceTime;
+		if (_assignedTaskCount <= 0) {
+			//drop the rounding errors accumulated while the queue was busy
+			_assignedTaskCount = 0;
+			_cpuBacklog = 0;
+			_expectedWork = 0;
+		}
+	}
+	
+	/**
+	 * Gets the number of tasks assigned to this worker and not completed yet.
+	 *
+	 * @return the number of tasks
+	 */
+	public synchronized int getAssignedTaskCount() {
+		return _assignedTaskCount;
+	}
+	
+	/**
+	 * Gets the estimated CPU share of all the tasks assigned to this worker
+	 * and not completed yet.
+	 *
+	 * @return the CPU backlog
+	 */
+	public synchronized double getCpuBacklog() {
+		return _cpuBacklog;
+	}
+	
+	/**
+	 * Gets the estimated execution time (in milliseconds) of all the tasks 
+	 * assigned to this worker and not completed yet.
+	 *
+	 * @return the expected work
+	 */
+	public synchronized double getExpectedWork() {
+		return _expectedWork;
+	}
+	
+	/**
+	 * Gets the persistent connection to this client.
+	 *
+	 * @return the connection, or null if the client is not connected
+	 */
+	public MessageChannel getChannel() {
+		return _channel;
+	}
+	
+	/**
+	 * Binds a new persistent connection to this client. The connection that
+	 * was bound before (if any) is closed.
+	 *
+	 * @param channel the connection the client has announced itself on
+	 */
+	public void attachChannel(MessageChannel channel) {
+		MessageChannel previous = _channel;
+		_channel = channel;
+		if (previous != null && previous != channel) {
+			previous.close();
+		}
+	}
+	
+	/**
+	 * Unbinds the connection from this client, unless the client has already
+	 * replaced it with another one.
+	 *
+	 * @param channel the connection that was dropped
+	 */
+	public void detachChannel(MessageChannel channel) {
+		if (_channel == channel) {
+			_channel = null;
+		}
+	}
 }
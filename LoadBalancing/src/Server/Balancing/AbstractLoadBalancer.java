@@ -0,0 +1,56 @@
+package Server.Balancing;
+
+import Common.Performance;
+import Common.Task;
+import Server.Account;
+
+/**
+ * Base of the load balancing strategies: keeps the metrics, places a batch
+ * one task at a time and ignores completed tasks. Strategies override
+ * selectBatch and taskCompleted as needed.
+ */
+public abstract class AbstractLoadBalancer implements LoadBalancer {
+
+	/**
+	 * The cpu share assumed for the tasks of the types that have not been
+	 * processed yet.
+	 */
+	public static final double UNKNOWN_TASK_TYPE_CPU_SHARE = 0.5;
+
+	private final BalancerMetrics metrics = new BalancerMetrics();
+
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			placement[t] = select(context, tasks[t]);
+			if (placement[t] == null) {
+				return null;
+			}
+		}
+		return placement;
+	}
+
+	@Override
+	public void taskCompleted(BalancingContext context, int taskId) {
+	}
+
+	@Override
+	public BalancerMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * @return the latest cpu load reported by the worker, 0 if it has not
+	 * 		   reported yet
+	 */
+	protected static double reportedCpuLoad(Account worker) {
+		Performance performance = worker.getPerformance();
+		return performance == null ? 0 : performance.getCpuLoad();
+	}
+}
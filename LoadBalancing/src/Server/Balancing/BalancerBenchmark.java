@@ -0,0 +1,172 @@
+package Server.Balancing;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import Common.Constants;
+import Common.Performance;
+import Common.Task;
+import Server.Account;
+import Server.LoadIndex;
+import Tasks.Timer;
+
+/**
+ * Runs every registered load balancing strategy (see LoadBalancerRegistry)
+ * against the same simulated workers: each task placed is assigned to its
+ * worker, and the oldest tasks complete as new ones arrive, keeping a fixed
+ * number of tasks in the system. Reports the metrics of each strategy and
+ * how evenly the tasks were spread (largest and smallest number of tasks
+ * assigned to a worker at the end). With a batch size, the tasks are
+ * placed in batches (see LoadBalancer.selectBatch).
+ * Usage: BalancerBenchmark [workers] [tasks] [batch size]
+ */
+public class BalancerBenchmark {
+
+	public static void main(String[] args) {
+		int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int taskCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		System.out.println(workerCount + " workers, " + taskCount + " tasks"
+				+ (batchSize > 1 ? " in batches of " + batchSize : "") + ".");
+		for (LoadBalancer balancer : new LoadBalancerRegistry().all()) {
+			//warm up
+			run(new LoadBalancerRegistry(), balancer.getId(), workerCount, taskCount / 10, batchSize);
+			LoadBalancerRegistry registry = new LoadBalancerRegistry();
+			SimulatedServer server = run(registry, balancer.getId(), workerCount, taskCount, batchSize);
+			LoadBalancer used = registry.current();
+			System.out.println(String.format("%d %-34s %s, tasks per worker %d..%d", used.getId(),
+					used.getName(), used.getMetrics(), server.leastTasks(), server.mostTasks()));
+		}
+	}
+
+	/**
+	 * Place the tasks on a new simulated server with the given strategy
+	 */
+	private static SimulatedServer run(LoadBalancerRegistry registry, int id, int workerCount, int taskCount,
+			int batchSize) {
+		registry.use(id);
+		SimulatedServer server = new SimulatedServer(workerCount);
+		PrintStream out = System.out;
+		//some strategies log every decision
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		try {
+			server.run(registry, taskCount, batchSize);
+		} finally {
+			System.setOut(out);
+		}
+		return server;
+	}
+
+	/**
+	 * Workers with random reported loads, and the context the strategies
+	 * decide on
+	 */
+	private static class SimulatedServer implements BalancingContext {
+
+		/** Execution time (in milliseconds) of every simulated task */
+		private static final double SERVICE_TIME = 10;
+
+		private final List<Account> workers = new ArrayList<Account>();
+		private final List<Account> workersById;
+		private final LoadIndex loadIndex = new LoadIndex();
+		private final Random random = new Random(42);
+
+		SimulatedServer(int workerCount) {
+			for (int i = 0; i < workerCount; i++) {
+				Account worker = new Account(i, InetAddress.getLoopbackAddress(), 20000 + i,
+						Constants.ClientType.WORKER);
+				Performance performance = new Performance();
+				performance.setCpuLoad(random.nextDouble());
+				worker.setPerformance(performance);
+				workers.add(worker);
+				loadIndex.add(worker);
+			}
+			workersById = Collections.unmodifiableList(new ArrayList<Account>(workers));
+		}
+
+		/**
+		 * Place the given number of tasks, keeping 8 tasks per worker (or a
+		 * batch, if more) in the system
+		 */
+		void run(LoadBalancerRegistry registry, int taskCount, int batchSize) {
+			Account[] inSystem = new Account[Math.max(8 * workers.size(), batchSize)];
+			for (int first = 0; first < taskCount; first += batchSize) {
+				Task[] tasks = new Task[Math.min(batchSize, taskCount - first)];
+				for (int i = first; i < first + tasks.length; i++) {
+					tasks[i - first] = new Timer(1, 1);
+					tasks[i - first].setId(i);
+					int slot = i % inSystem.length;
+					if (inSystem[slot] != null) {
+						inSystem[slot].releaseTask(AbstractLoadBalancer.UNKNOWN_TASK_TYPE_CPU_SHARE,
+								SERVICE_TIME);
+						loadIndex.update(inSystem[slot]);
+						registry.taskCompleted(this, i - inSystem.length);
+					}
+				}
+				Account[] placement = batchSize > 1 ? registry.selectBatch(this, tasks)
+						: new Account[] { registry.select(this, tasks[0]) };
+				for (int i = first; i < first + tasks.length; i++) {
+					Account worker = placement[i - first];
+					worker.assignTask(AbstractLoadBalancer.UNKNOWN_TASK_TYPE_CPU_SHARE, SERVICE_TIME);
+					loadIndex.update(worker);
+					inSystem[i % inSystem.length] = worker;
+				}
+			}
+		}
+
+		int leastTasks() {
+			int least = Integer.MAX_VALUE;
+			for (Account worker : workers) {
+				least = Math.min(least, worker.getAssignedTaskCount());
+			}
+			return least;
+		}
+
+		int mostTasks() {
+			int most = 0;
+			for (Account worker : workers) {
+				most = Math.max(most, worker.getAssignedTaskCount());
+			}
+			return most;
+		}
+
+		@Override
+		public List<Account> getActiveWorkers() {
+			return workers;
+		}
+
+		@Override
+		public List<Account> getWorkersById() {
+			return workersById;
+		}
+
+		@Override
+		public LoadIndex getLoadIndex() {
+			return loadIndex;
+		}
+
+		@Override
+		public double estimateCpuShare(Task task, double unknown) {
+			return unknown;
+		}
+
+		@Override
+		public double estimateServiceTime(Task task) {
+			return SERVICE_TIME;
+		}
+
+		@Override
+		public long getPendingWaitingTime() {
+			return 0;
+		}
+	}
+}
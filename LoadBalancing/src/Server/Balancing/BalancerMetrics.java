@@ -0,0 +1,71 @@
+package Server.Balancing;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the decisions taken by a load balancing strategy: how many
+ * decisions found a worker (hits) and how many did not (misses), how many
+ * tasks were placed, and how long the decisions took. Updated by the
+ * threads taking the decisions without locking.
+ */
+public class BalancerMetrics {
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder tasksPlaced = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a decision.
+	 *
+	 * @param nanos the time the decision took
+	 * @param tasks the number of tasks placed by the decision
+	 * @param found did the decision find a worker ?
+	 */
+	public void record(long nanos, int tasks, boolean found) {
+		if (found) {
+			hits.increment();
+			tasksPlaced.add(tasks);
+		} else {
+			misses.increment();
+		}
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getTasksPlaced() {
+		return tasksPlaced.sum();
+	}
+
+	/**
+	 * @return the average time of a decision in nanoseconds, 0 if none
+	 */
+	public double getAverageLatencyNanos() {
+		long decisions = hits.sum() + misses.sum();
+		return decisions == 0 ? 0 : (double) totalNanos.sum() / decisions;
+	}
+
+	/**
+	 * @return the longest time a decision took in nanoseconds
+	 */
+	public long getMaxLatencyNanos() {
+		return maxNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits=%d, misses=%d, tasks placed=%d, avg latency=%.1f us, max latency=%.1f us",
+				getHits(), getMisses(), getTasksPlaced(), getAverageLatencyNanos() / 1000,
+				getMaxLatencyNanos() / 1000.0);
+	}
+}
@@ -0,0 +1,57 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Task;
+import Server.Account;
+import Server.LoadIndex;
+
+/**
+ * The state of the server the load balancing strategies decide on.
+ */
+public interface BalancingContext {
+
+	/**
+	 * @return the active workers. The list may change while it is used;
+	 * 		   iterate it or take a copy rather than indexing it
+	 */
+	List<Account> getActiveWorkers();
+
+	/**
+	 * @return a read-only snapshot of the active workers sorted by id,
+	 * 		   replaced whenever a worker joins or leaves
+	 */
+	List<Account> getWorkersById();
+
+	/**
+	 * @return the active workers ordered by their load
+	 */
+	LoadIndex getLoadIndex();
+
+	/**
+	 * Estimated cpu share of the task, based on the cpu share used by the
+	 * latest tasks of the same class and size (see Server.CostModel).
+	 *
+	 * @param task the task
+	 * @param unknown the value to return if no task of this class has been
+	 * 		  processed yet
+	 * @return the estimate, or unknown
+	 */
+	double estimateCpuShare(Task task, double unknown);
+
+	/**
+	 * Estimated execution time of the task, based on the execution times
+	 * reported for the latest tasks of the same class and size (for all the
+	 * tasks if no task of this class has been processed yet).
+	 *
+	 * @param task the task
+	 * @return the estimate in milliseconds, 0 if no task has been processed
+	 * 		   yet
+	 */
+	double estimateServiceTime(Task task);
+
+	/**
+	 * @return the total waiting time (in milliseconds) of the pending tasks
+	 */
+	long getPendingWaitingTime();
+}
@@ -0,0 +1,151 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Server.Account;
+
+/**
+ * The loads of the workers while a batch is being placed: read once for the
+ * batch, then updated with every task placed. The loads are kept in a
+ * segment tree over the workers (in the order they were given), so both the
+ * least loaded worker and the first worker below a given load are found in
+ * O(log n), and a placement is applied in O(log n), instead of scanning all
+ * the workers for every task of the batch; the tree is built in O(n) once
+ * per batch. Ties go to the worker with the smaller tie-break value, then
+ * to the first worker.
+ */
+class BatchLoads {
+
+	private final List<Account> workers;
+
+	private final double[] loads;
+
+	private final double[] tieBreaks;
+
+	/** Number of leaves of the tree, a power of two */
+	private final int leaves;
+
+	/** Index of the least loaded worker of each subtree, -1 if empty */
+	private final int[] least;
+
+	/** The smallest load in each subtree */
+	private final double[] lowest;
+
+	/**
+	 * @param workers the workers
+	 * @param loads the load of each worker before the batch
+	 */
+	BatchLoads(List<Account> workers, double[] loads) {
+		this(workers, loads, new double[loads.length]);
+	}
+
+	/**
+	 * @param workers the workers
+	 * @param loads the load of each worker before the batch
+	 * @param tieBreaks the values that decide between equally loaded workers
+	 */
+	BatchLoads(List<Account> workers, double[] loads, double[] tieBreaks) {
+		this.workers = workers;
+		this.loads = loads;
+		this.tieBreaks = tieBreaks;
+		int size = loads.length;
+		int n = 1;
+		while (n < size) {
+			n *= 2;
+		}
+		leaves = n;
+		least = new int[2 * n];
+		lowest = new double[2 * n];
+		for (int node = 0; node < 2 * n; node++) {
+			least[node] = -1;
+			lowest[node] = Double.MAX_VALUE;
+		}
+		for (int i = 0; i < size; i++) {
+			least[leaves + i] = i;
+			lowest[leaves + i] = loads[i];
+		}
+		for (int node = leaves - 1; node > 0; node--) {
+			pull(node);
+		}
+	}
+
+	/**
+	 * @return the number of workers
+	 */
+	int size() {
+		return loads.length;
+	}
+
+	Account worker(int i) {
+		return workers.get(i);
+	}
+
+	double load(int i) {
+		return loads[i];
+	}
+
+	double tieBreak(int i) {
+		return tieBreaks[i];
+	}
+
+	void set(int i, double load) {
+		set(i, load, tieBreaks[i]);
+	}
+
+	/**
+	 * Changes the load of a worker.
+	 *
+	 * @param i the index of the worker
+	 * @param load its new load
+	 * @param tieBreak the value that decides between equally loaded workers
+	 */
+	void set(int i, double load, double tieBreak) {
+		loads[i] = load;
+		tieBreaks[i] = tieBreak;
+		int node = leaves + i;
+		lowest[node] = load;
+		for (node /= 2; node > 0; node /= 2) {
+			pull(node);
+		}
+	}
+
+	/**
+	 * @return the index of the least loaded worker, -1 if no workers
+	 */
+	int least() {
+		return least[1];
+	}
+
+	/**
+	 * @return the index of the first worker with a load below the limit, -1
+	 * 		   if there is none
+	 */
+	int firstBelow(double limit) {
+		if (! (lowest[1] < limit)) {
+			return -1;
+		}
+		int node = 1;
+		while (node < leaves) {
+			node = lowest[2 * node] < limit ? 2 * node : 2 * node + 1;
+		}
+		return node - leaves;
+	}
+
+	private void pull(int node) {
+		int left = least[2 * node];
+		int right = least[2 * node + 1];
+		int best = left == -1 || (right != -1 && less(right, left)) ? right : left;
+		least[node] = best;
+		lowest[node] = Math.min(lowest[2 * node], lowest[2 * node + 1]);
+	}
+
+	/**
+	 * Is worker a less loaded than worker b, b coming first on a full tie ?
+	 */
+	private boolean less(int a, int b) {
+		if (loads[a] != loads[b]) {
+			return loads[a] < loads[b];
+		}
+		return tieBreaks[a] < tieBreaks[b];
+	}
+}
@@ -0,0 +1,54 @@
+package Server.Balancing;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 2: returns an active worker with the cpu load
+ * low enough that the new task can have enough cpu to be processed.
+ * Task's cpu share is estimated based on the cpu share used by the latest
+ * tasks of the same class and size (see Server.CostModel), so the estimate
+ * follows a changing mix of tasks. If this is the first task of its class,
+ * or no worker has enough cpu left, the worker with lowest current cpu load
+ * will be used.
+ */
+public class FittingCpuShareBalancer extends MinCpuShareBalancer {
+
+	public static final int ID = 2;
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "fittingCpuShareLoadBalancer";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		double taskTypeCpuShare = context.estimateCpuShare(task, -1);
+		//check if the server has processed the tasks of this type in
+		//the past
+		if (taskTypeCpuShare != -1) {
+			for (Account ac : context.getActiveWorkers()) {
+				if (taskTypeCpuShare < (1 - reportedCpuLoad(ac))) {
+					return ac;
+				}
+			}
+		}
+		return super.select(context, task);
+	}
+
+	@Override
+	int place(BatchLoads load, double taskTypeCpuShare) {
+		if (taskTypeCpuShare != -1) {
+			int i = load.firstBelow(1 - taskTypeCpuShare);
+			if (i != -1) {
+				return i;
+			}
+		}
+		return super.place(load, taskTypeCpuShare);
+	}
+}
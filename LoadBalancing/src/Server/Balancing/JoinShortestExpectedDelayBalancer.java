@@ -0,0 +1,96 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Constants;
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 6: returns the active worker on which the task
+ * is expected to finish first. The execution time of a task is estimated
+ * from the execution times reported for the tasks of the same type (see
+ * BalancingContext.estimateServiceTime), and each worker keeps the sum of
+ * the estimates of the tasks assigned to it (see Account.getExpectedWork).
+ * A worker runs THREADS_IN_WORKER tasks at a time: while it has a free
+ * thread the task starts immediately, otherwise it waits for the worker's
+ * expected work to be shared out between its threads.
+ */
+public class JoinShortestExpectedDelayBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 6;
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "joinShortestExpectedDelayBalancer";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		double serviceTime = context.estimateServiceTime(task);
+		Account best = null;
+		double bestFinish = Double.MAX_VALUE;
+		int bestCount = Integer.MAX_VALUE;
+		for (Account worker : context.getActiveWorkers()) {
+			int count = worker.getAssignedTaskCount();
+			double finish = expectedDelay(count, worker.getExpectedWork()) + serviceTime;
+			if (finish < bestFinish || (finish == bestFinish && count < bestCount)) {
+				best = worker;
+				bestFinish = finish;
+				bestCount = count;
+			}
+		}
+		return best;
+	}
+
+	/*The queues of the workers are read once for the batch and are then
+	 * updated with every task placed. The task's own execution time is the
+	 * same on every worker, so the worker with the shortest expected delay
+	 * (the fewest tasks on a tie) is the one the task finishes first on.
+	 */
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		double[] delays = new double[workers.size()];
+		double[] counts = new double[workers.size()];
+		double[] work = new double[workers.size()];
+		for (int i = 0; i < delays.length; i++) {
+			counts[i] = workers.get(i).getAssignedTaskCount();
+			work[i] = workers.get(i).getExpectedWork();
+			delays[i] = expectedDelay((int) counts[i], work[i]);
+		}
+		//the fewest tasks on a tie
+		BatchLoads delay = new BatchLoads(workers, delays, counts);
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			int best = delay.least();
+			placement[t] = delay.worker(best);
+			int count = (int) delay.tieBreak(best) + 1;
+			work[best] += context.estimateServiceTime(tasks[t]);
+			delay.set(best, expectedDelay(count, work[best]), count);
+		}
+		return placement;
+	}
+
+	/**
+	 * Time (in milliseconds) a new task is expected to wait on a worker
+	 * before it starts
+	 *
+	 * @param assignedTasks the number of tasks assigned to the worker
+	 * @param expectedWork the expected execution time of these tasks
+	 */
+	private static double expectedDelay(int assignedTasks, double expectedWork) {
+		if (assignedTasks < Constants.THREADS_IN_WORKER) {
+			return 0;
+		}
+		return expectedWork / Constants.THREADS_IN_WORKER;
+	}
+}
@@ -0,0 +1,58 @@
+package Server.Balancing;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * A load balancing strategy: picks the worker each task is sent to.
+ * The strategies are found with java.util.ServiceLoader (see
+ * LoadBalancerRegistry), so a new strategy is added by implementing this
+ * interface (usually by extending AbstractLoadBalancer) and listing the
+ * class in META-INF/services/Server.Balancing.LoadBalancer.
+ * A strategy is used by several threads at once and has to be thread safe.
+ */
+public interface LoadBalancer {
+
+	/**
+	 * @return the number the strategy is selected by (the server's command
+	 * 		   line argument and the argument of SET_LOAD_LB)
+	 */
+	int getId();
+
+	/**
+	 * @return the name of the strategy, as displayed by the server
+	 */
+	String getName();
+
+	/**
+	 * Picks the worker for a single task.
+	 *
+	 * @param context the state of the server
+	 * @param task the task to place
+	 * @return the worker, null if no active workers found
+	 */
+	Account select(BalancingContext context, Task task);
+
+	/**
+	 * Picks the workers for a batch of tasks submitted together.
+	 *
+	 * @param context the state of the server
+	 * @param tasks the tasks to place
+	 * @return the worker for each task of the batch, in the same order. 
+	 * 		   Null if no active workers found.
+	 */
+	Account[] selectBatch(BalancingContext context, Task[] tasks);
+
+	/**
+	 * Called for every completed task, whichever strategy placed it.
+	 *
+	 * @param context the state of the server
+	 * @param taskId the id of the task (as assigned by the server)
+	 */
+	void taskCompleted(BalancingContext context, int taskId);
+
+	/**
+	 * @return the counters of the decisions taken by the strategy
+	 */
+	BalancerMetrics getMetrics();
+}
@@ -0,0 +1,166 @@
+package Server.Balancing;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import Common.Constants;
+import Common.Task;
+import Server.Account;
+
+/**
+ * The load balancing strategies available to the server, by their ids, and
+ * the one currently in use. The strategies are loaded with
+ * java.util.ServiceLoader; the built-in ones are registered even if the
+ * services file is not on the class path. Switching the strategy is atomic:
+ * every decision (a whole batch included) is taken by a single strategy, and
+ * its time and outcome are recorded in the metrics of that strategy.
+ */
+public class LoadBalancerRegistry {
+
+	private final TreeMap<Integer, LoadBalancer> balancers = new TreeMap<Integer, LoadBalancer>();
+
+	private final AtomicReference<LoadBalancer> current = new AtomicReference<LoadBalancer>();
+
+	public LoadBalancerRegistry() {
+		Iterator<LoadBalancer> loaded = ServiceLoader.load(LoadBalancer.class).iterator();
+		while (true) {
+			try {
+				if (! loaded.hasNext()) {
+					break;
+				}
+				register(loaded.next());
+			} catch (ServiceConfigurationError e) {
+				System.err.println("Failed to load a load balancer: " + e.getMessage());
+			}
+		}
+		LoadBalancer[] builtIn = { new RoundRobinBalancer(), new QueueLengthBalancer(),
+				new FittingCpuShareBalancer(), new MinCpuShareBalancer(),
+				new MinCpuLoadQueueBalancer(), new ReinforcementLearningBalancer(),
+				new JoinShortestExpectedDelayBalancer() };
+		for (LoadBalancer balancer : builtIn) {
+			if (! balancers.containsKey(balancer.getId())) {
+				register(balancer);
+			}
+		}
+		current.set(balancers.get(RoundRobinBalancer.ID));
+	}
+
+	private void register(LoadBalancer balancer) {
+		LoadBalancer replaced = balancers.put(balancer.getId(), balancer);
+		if (replaced != null) {
+			System.err.println("Load balancer " + balancer.getId() + ": " + balancer.getName() 
+					+ " replaces " + replaced.getName());
+		}
+	}
+
+	/**
+	 * Switches to another strategy.
+	 *
+	 * @param id the id of the strategy, round robin is used for unknown ids
+	 * @return the strategy in use from now on
+	 */
+	public LoadBalancer use(int id) {
+		LoadBalancer balancer = balancers.get(id);
+		if (balancer == null) {
+			balancer = balancers.get(RoundRobinBalancer.ID);
+		}
+		current.set(balancer);
+		return balancer;
+	}
+
+	/**
+	 * @return the strategy in use
+	 */
+	public LoadBalancer current() {
+		return current.get();
+	}
+
+	/**
+	 * @return all the strategies, by id
+	 */
+	public Collection<LoadBalancer> all() {
+		return Collections.unmodifiableCollection(balancers.values());
+	}
+
+	/**
+	 * Picks the worker for a single task with the current strategy.
+	 *
+	 * @return the worker, null if no active workers found
+	 */
+	public Account select(BalancingContext context, Task task) {
+		LoadBalancer balancer = current.get();
+		long start = System.nanoTime();
+		Account worker = preferIdle(context, task, balancer.select(context, task), null);
+		balancer.getMetrics().record(System.nanoTime() - start, 1, worker != null);
+		return worker;
+	}
+
+	/**
+	 * Picks the workers for a batch of tasks with the current strategy.
+	 *
+	 * @return the worker for each task, null if no active workers found
+	 */
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		LoadBalancer balancer = current.get();
+		long start = System.nanoTime();
+		Account[] placement = balancer.selectBatch(context, tasks);
+		if (placement != null) {
+			Map<Account, Integer> placed = new HashMap<Account, Integer>();
+			for (int i = 0; i < tasks.length; i++) {
+				placement[i] = preferIdle(context, tasks[i], placement[i], placed);
+				Integer count = placed.get(placement[i]);
+				placed.put(placement[i], count == null ? 1 : count + 1);
+			}
+		}
+		balancer.getMetrics().record(System.nanoTime() - start, tasks.length, placement != null);
+		return placement;
+	}
+
+	/**
+	 * Urgent tasks (with a priority or a deadline) are not left waiting for
+	 * a thread: if the strategy has placed one on a worker with no free
+	 * thread, it goes to the least loaded worker with a free thread instead,
+	 * if there is one.
+	 *
+	 * @param chosen the worker chosen by the strategy
+	 * @param placed the number of tasks of the same batch placed on each
+	 * 		  worker so far, null for a single task
+	 * @return the worker to place the task on
+	 */
+	private static Account preferIdle(BalancingContext context, Task task, Account chosen,
+			Map<Account, Integer> placed) {
+		if (chosen == null || (task.getPriority() == 0 && task.getDeadline() == 0)
+				|| load(chosen, placed) < Constants.THREADS_IN_WORKER) {
+			return chosen;
+		}
+		Account idle = null;
+		for (Account worker : context.getActiveWorkers()) {
+			int load = load(worker, placed);
+			if (load < Constants.THREADS_IN_WORKER && (idle == null || load < load(idle, placed))) {
+				idle = worker;
+			}
+		}
+		return idle == null ? chosen : idle;
+	}
+
+	private static int load(Account worker, Map<Account, Integer> placed) {
+		Integer count = placed == null ? null : placed.get(worker);
+		return worker.getAssignedTaskCount() + (count == null ? 0 : count);
+	}
+
+	/**
+	 * Lets every strategy know that the task has completed.
+	 */
+	public void taskCompleted(BalancingContext context, int taskId) {
+		for (LoadBalancer balancer : balancers.values()) {
+			balancer.taskCompleted(context, taskId);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 4: returns the active worker with the lowest cpu
+ * load based on the tasks already in workers' queues. Each tasks cpu load
+ * is estimated based on the cpu share used by the latest tasks of the same
+ * class and size (see Server.CostModel) at the time the task was assigned.
+ * The backlog of each worker
+ * is kept up to date as the tasks are assigned and completed (see
+ * Account.getCpuBacklog).
+ */
+public class MinCpuLoadQueueBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 4;
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "minCpuLoadQueueBalancer";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		Account minQueueAccount = context.getLoadIndex().leastCpuBacklog();
+		if (minQueueAccount != null) {
+			System.out.println("minCpuLoadQueue Load Balancer" + minQueueAccount + ": "
+					+ minQueueAccount.getCpuBacklog());
+		}
+		return minQueueAccount;
+	}
+
+	/*The backlog of the workers is read once for the batch and is then
+	 * updated with every task placed.
+	 */
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		double[] backlogs = new double[workers.size()];
+		for (int i = 0; i < backlogs.length; i++) {
+			backlogs[i] = workers.get(i).getCpuBacklog();
+		}
+		BatchLoads load = new BatchLoads(workers, backlogs);
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			int i = load.least();
+			placement[t] = load.worker(i);
+			load.set(i, load.load(i) + context.estimateCpuShare(tasks[t], UNKNOWN_TASK_TYPE_CPU_SHARE));
+		}
+		return placement;
+	}
+}
@@ -0,0 +1,67 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 3: returns the active worker with the lowest cpu
+ * load (from the latest reported worker's load).
+ */
+public class MinCpuShareBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 3;
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "minCpuShareLoadBalancer";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		return context.getLoadIndex().leastCpuLoad();
+	}
+
+	/*The reported cpu load of the workers is read once for the batch and is
+	 * then increased by the estimated cpu share of every task placed.
+	 */
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		double[] cpuLoads = new double[workers.size()];
+		for (int i = 0; i < cpuLoads.length; i++) {
+			cpuLoads[i] = reportedCpuLoad(workers.get(i));
+		}
+		BatchLoads load = new BatchLoads(workers, cpuLoads);
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			double taskTypeCpuShare = context.estimateCpuShare(tasks[t], -1);
+			int i = place(load, taskTypeCpuShare);
+			placement[t] = load.worker(i);
+			load.set(i, load.load(i) + (taskTypeCpuShare == -1 ? UNKNOWN_TASK_TYPE_CPU_SHARE : taskTypeCpuShare));
+		}
+		return placement;
+	}
+
+	/**
+	 * Picks the worker for a task of a batch.
+	 *
+	 * @param load the cpu load of each worker, with the tasks of the batch
+	 * 		  placed so far
+	 * @param taskTypeCpuShare the estimated cpu share of the task, -1 if
+	 * 		  unknown
+	 * @return the index of the worker
+	 */
+	int place(BatchLoads load, double taskTypeCpuShare) {
+		return load.least();
+	}
+}
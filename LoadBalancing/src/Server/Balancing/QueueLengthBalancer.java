@@ -0,0 +1,55 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 1: returns the active worker with the lowest
+ * number of tasks currently in a queue or being executed.
+ */
+public class QueueLengthBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 1;
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "queueLengthLoadBalancer";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		return context.getLoadIndex().leastAssignedTasks();
+	}
+
+	/*The number of tasks of the workers is read once for the batch and is
+	 * then updated with every task placed, so the batch is spread across the
+	 * workers instead of landing on the worker that was least loaded before
+	 * the batch.
+	 */
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		double[] counts = new double[workers.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = workers.get(i).getAssignedTaskCount();
+		}
+		BatchLoads load = new BatchLoads(workers, counts);
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			int i = load.least();
+			placement[t] = load.worker(i);
+			load.set(i, load.load(i) + 1);
+		}
+		return placement;
+	}
+}
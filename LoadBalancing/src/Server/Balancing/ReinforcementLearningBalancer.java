@@ -0,0 +1,59 @@
+package Server.Balancing;
+
+import java.util.List;
+
+import Common.Task;
+import Server.Account;
+import Server.QlearningLoadBalancer;
+
+/**
+ * Load balancing algorithm 5: the reinforcement learner agent (see
+ * QlearningLoadBalancer), learning from every completed task it placed.
+ */
+public class ReinforcementLearningBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 5;
+
+	private final QlearningLoadBalancer agent = new QlearningLoadBalancer();
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "reinforcement learner agent";
+	}
+
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.size() > 0) {
+			return workers.get(agent.disPtch(workers, task));
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			placement[t] = workers.get(agent.disPtch(workers, tasks[t]));
+		}
+		return placement;
+	}
+
+	/*Also called after switching to another strategy, so the decisions taken
+	 * before the switch are not kept forever.
+	 */
+	@Override
+	public void taskCompleted(BalancingContext context, int taskId) {
+		agent.update(context.getWorkersById(), taskId, context.getPendingWaitingTime());
+	}
+}
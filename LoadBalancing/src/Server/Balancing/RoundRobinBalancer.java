@@ -0,0 +1,56 @@
+package Server.Balancing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Common.Task;
+import Server.Account;
+
+/**
+ * Load balancing algorithm 0 (also used for unknown algorithm numbers):
+ * returns the active workers in a round robin fashion, in the order of
+ * their ids.
+ */
+public class RoundRobinBalancer extends AbstractLoadBalancer {
+
+	public static final int ID = 0;
+
+	//position of the previously returned worker
+	private final AtomicInteger nextWorker = new AtomicInteger(-1);
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "roundRobinLoadBalancer";
+	}
+
+	/*Returns the account (active worker) that is next in relation to the
+	 * previously returned worker. Null if no active workers found.
+	 */
+	@Override
+	public Account select(BalancingContext context, Task task) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.size() > 0) {
+			return workers.get(Math.floorMod(nextWorker.incrementAndGet(), workers.size()));
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public Account[] selectBatch(BalancingContext context, Task[] tasks) {
+		List<Account> workers = context.getWorkersById();
+		if (workers.isEmpty()) {
+			return null;
+		}
+		Account[] placement = new Account[tasks.length];
+		for (int t = 0; t < tasks.length; t++) {
+			placement[t] = workers.get(Math.floorMod(nextWorker.incrementAndGet(), workers.size()));
+		}
+		return placement;
+	}
+}
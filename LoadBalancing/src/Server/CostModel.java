@@ -0,0 +1,157 @@
+package Server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import Common.Constants;
+import Common.Task;
+
+/**
+ * The expected cost of a task: the CPU share and the execution time (as
+ * reported by the workers) of the latest tasks of the same class and size
+ * class (see Task.getCostBucket), as exponentially weighted moving averages,
+ * so the estimates follow a changing mix of tasks. The classes are told
+ * apart by the class itself, not by Task.getUID, which several classes
+ * share. Until COST_MODEL_MIN_SAMPLES tasks of a size class have completed,
+ * the estimate of the whole class is used. The costs are recorded and read
+ * without locks.
+ */
+public class CostModel {
+
+	private final Map<Class<?>, ClassCost> classes = new ConcurrentHashMap<Class<?>, ClassCost>();
+
+	/**
+	 * Records the cost of a completed task.
+	 *
+	 * @param cpuShare the CPU share the task used, negative if not reported
+	 * @param serviceTime the execution time in milliseconds, negative if not
+	 * 		  reported
+	 */
+	public void record(Task task, double cpuShare, long serviceTime) {
+		ClassCost classCost = classes.computeIfAbsent(task.getClass(), c -> new ClassCost());
+		Estimate bucket = classCost.buckets.computeIfAbsent(task.getCostBucket(), b -> new Estimate());
+		if (cpuShare >= 0) {
+			classCost.all.cpuShare.updateAndGet(a -> a.add(cpuShare));
+			bucket.cpuShare.updateAndGet(a -> a.add(cpuShare));
+		}
+		if (serviceTime >= 0) {
+			classCost.all.serviceTime.updateAndGet(a -> a.add(serviceTime));
+			bucket.serviceTime.updateAndGet(a -> a.add(serviceTime));
+		}
+	}
+
+	/**
+	 * @return the expected CPU share of the task, unknown if no task of its
+	 * 		   class has been reported
+	 */
+	public double estimateCpuShare(Task task, double unknown) {
+		ClassCost classCost = classes.get(task.getClass());
+		if (classCost == null) {
+			return unknown;
+		}
+		Estimate bucket = classCost.buckets.get(task.getCostBucket());
+		return choose(bucket == null ? null : bucket.cpuShare.get(), classCost.all.cpuShare.get(), unknown);
+	}
+
+	/**
+	 * @return the expected execution time of the task in milliseconds,
+	 * 		   unknown if no task of its class has been reported
+	 */
+	public double estimateServiceTime(Task task, double unknown) {
+		ClassCost classCost = classes.get(task.getClass());
+		if (classCost == null) {
+			return unknown;
+		}
+		Estimate bucket = classCost.buckets.get(task.getCostBucket());
+		return choose(bucket == null ? null : bucket.serviceTime.get(), classCost.all.serviceTime.get(), unknown);
+	}
+
+	/**
+	 * The average of the size class if it has enough samples, else the
+	 * average of the whole class, else unknown
+	 */
+	private static double choose(Average bucket, Average all, double unknown) {
+		if (bucket != null && bucket.samples >= Constants.COST_MODEL_MIN_SAMPLES) {
+			return bucket.mean;
+		}
+		return all.samples == 0 ? unknown : all.mean;
+	}
+
+	/**
+	 * Lists the estimates of every class and size class.
+	 */
+	@Override
+	public String toString() {
+		String res = "";
+		for (Map.Entry<Class<?>, ClassCost> entry : classes.entrySet()) {
+			String name = entry.getKey().getSimpleName();
+			res += name + ": " + entry.getValue().all + "\n";
+			for (Map.Entry<Integer, Estimate> bucket : entry.getValue().buckets.entrySet()) {
+				res += name + " size " + bucket.getKey() + ": " + bucket.getValue() + "\n";
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * The estimates of a task class, as a whole and per size class.
+	 */
+	private static class ClassCost {
+
+		final Estimate all = new Estimate();
+
+		final Map<Integer, Estimate> buckets = new ConcurrentHashMap<Integer, Estimate>();
+	}
+
+	/**
+	 * The CPU share and execution time averages of a set of tasks. Each
+	 * average is replaced as a whole, so it is always read consistent.
+	 */
+	private static class Estimate {
+
+		final AtomicReference<Average> cpuShare = new AtomicReference<Average>(Average.NONE);
+
+		final AtomicReference<Average> serviceTime = new AtomicReference<Average>(Average.NONE);
+
+		@Override
+		public String toString() {
+			Average cpu = cpuShare.get();
+			Average time = serviceTime.get();
+			return String.format("CPU share %.3f (+/-%.3f, %d tasks), time %.0f ms (+/-%.0f, %d tasks)",
+					cpu.mean, cpu.deviation, cpu.samples, time.mean, time.deviation, time.samples);
+		}
+	}
+
+	/**
+	 * An exponentially weighted moving average with the moving average of
+	 * the absolute deviation from it, which tells how far the values
+	 * stray from the average; the number of values tells how much it can be
+	 * trusted. The first value is taken as is.
+	 */
+	private static final class Average {
+
+		static final Average NONE = new Average(0, 0, 0);
+
+		final long samples;
+
+		final double mean;
+
+		final double deviation;
+
+		Average(long samples, double mean, double deviation) {
+			this.samples = samples;
+			this.mean = mean;
+			this.deviation = deviation;
+		}
+
+		Average add(double value) {
+			if (samples == 0) {
+				return new Average(1, value, 0);
+			}
+			double alpha = Constants.COST_MODEL_ALPHA;
+			return new Average(samples + 1, mean + alpha * (value - mean),
+					deviation + alpha * (Math.abs(value - mean) - deviation));
+		}
+	}
+}
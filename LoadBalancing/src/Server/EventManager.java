@@ -1,29 +1,47 @@
 package Server;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import Common.Constants;
 import Common.Constants.RequestType;
 import Common.Message;
+import Common.MessageChannel;
+import Common.SocketMessageChannel;
+import Common.Threads;
 import Common.Performance;
 import Common.Task;
-import Server.RL.State;
+import Server.Balancing.AbstractLoadBalancer;
+import Server.Balancing.BalancingContext;
+import Server.Balancing.LoadBalancer;
+import Server.Balancing.LoadBalancerRegistry;
 
 
 /**
@@ -47,14 +65,22 @@ public class EventManager implements Serializable {
     private int nextAccountID = 0;
 
     /**
-     * The next event id. Each new event gets a new unique ID
+     * The next event id. Each new event gets a new unique ID, taken without
+     * a lock, so the agents of the clients submit tasks in parallel
      */
-    private static int nextTaskID = 0;
+    private AtomicInteger nextTaskID;
 
     /**
-     * The queue to store incoming tasks before they are processed.
+     * The queue to store incoming tasks before they are processed, the most
+     * urgent first (see enqueue).
      */
-    private BlockingQueue<Message> newMessages;
+    private BlockingQueue<QueuedMessage> newMessages;
+
+    /**
+     * The number of messages queued so far, keeps the messages of equal
+     * urgency in the order they were queued in.
+     */
+    private AtomicLong messageSequence;
 
     /** The list of all topics that this server accepts. */
     //private List<Topic> topics;
@@ -65,9 +91,75 @@ public class EventManager implements Serializable {
 
     /**
      * The accounts representing worker nodes that are online as far as serve is aware.
+     * Each worker is listed at most once. The list is copied on every change
+     * (workers come and go rarely), so the load balancers iterate over it
+     * without locking.
      */
     private List<Account> activeWorkers;
 
+    /**
+     * The active workers ordered by their load. Always holds the same workers
+     * as activeWorkers.
+     */
+    private transient LoadIndex loadIndex;
+
+    /**
+     * Read-only copy of the active workers sorted by id, replaced whenever a
+     * worker joins or leaves. The RL balancer picks workers by their
+     * position in it.
+     */
+    private transient volatile List<Account> workersById;
+
+    /**
+     * The number of pending tasks not assigned to a worker yet, and the sum
+     * of the times they were queued at. Together with assignedWait, they
+     * give the total waiting time of the pending tasks without going
+     * through them (see pendingWaitingTime).
+     */
+    private transient LongAdder queuedTasks;
+    private transient LongAdder queuedSince;
+
+    /**
+     * The sum of the waiting times of the pending tasks assigned to workers.
+     */
+    private transient LongAdder assignedWait;
+
+    /**
+     * The workers asked to give up tasks (REMOVE_TASK) that have not answered
+     * yet. At most one request per worker is in flight.
+     * Key - worker id
+     * Value - time the request was sent
+     */
+    private transient Map<Integer, Long> removalRequests;
+
+    /**
+     * The number of tasks each user has on the server: submitted, and not
+     * completed or aborted yet (see admit).
+     * Key - user id
+     */
+    private transient Map<Integer, AtomicInteger> userTasksInFlight;
+
+    /**
+     * The pending tasks by their owner and the id the owner gave them, so an
+     * ABORT finds its task without scanning pendingTasks.
+     * Key - see ownerTaskKey
+     */
+    private transient Map<Long, TaskMetadata> tasksByOwner;
+
+    /**
+     * The tasks assigned to each worker, in the order they were assigned,
+     * so work stealing takes the latest ones without scanning pendingTasks.
+     * Tasks that are no longer assigned to the worker are dropped lazily
+     * (see trimAssignedTasks).
+     * Key - worker id
+     */
+    private transient Map<Integer, Deque<TaskMetadata>> assignedTasks;
+
+    /**
+     * The number of tasks on the server, from all the users.
+     */
+    private transient AtomicInteger tasksInFlight;
+
     /**
      * The accounts representing user nodes.
      */
@@ -79,6 +171,11 @@ public class EventManager implements Serializable {
      */
     private List<Account> accounts;
 
+    /**
+     * Both workers and users accounts, indexed by account id.
+     */
+    private Map<Integer, Account> accountIndex;
+
     /** The server copy of each worker's queue. */
     //private Map<Account, Set<Message>> workersActiveTasks;
 
@@ -88,7 +185,6 @@ public class EventManager implements Serializable {
     private Map<Account, Set<Message>> pendingMessages;
 
     private ServerStats stats;
-    private QlearningLoadBalancer rlLoadBalancer;
     //private Map<Long, >
     //long serialVersionUID
 
@@ -110,6 +206,28 @@ public class EventManager implements Serializable {
      */
     int loadBalancingAlg;
 
+    /**
+     * The load balancing strategies, loadBalancingAlg being the id of the
+     * one in use.
+     */
+    private transient LoadBalancerRegistry balancers;
+
+    /**
+     * The state of the server as seen by the load balancing strategies.
+     */
+    private transient BalancingContext balancing;
+
+    /**
+     * The number of lanes delivering messages to the accounts concurrently.
+     */
+    private int publisherLanes;
+
+    /**
+     * The queues of the delivery lanes. The account with id N is always
+     * served by the lane N % publisherLanes
+     */
+    private transient List<BlockingQueue<Delivery>> laneQueues;
+
     /**
      * This function loads the object with initial data for demo/testing
      *
@@ -123,29 +241,17 @@ public class EventManager implements Serializable {
     }
 
     private void displayLoadBalancer() {
-        switch (loadBalancingAlg) {
-            case 0:
-                System.out.println("Load balancer set to: roundRobinLoadBalancer");
-                break;
-            case 1:
-                System.out.println("Load balancer set to: queueLengthLoadBalancer");
-                break;
-            case 2:
-                System.out.println("Load balancer set to: fittingCpuShareLoadBalancer");
-                break;
-            case 3:
-                System.out.println("Load balancer set to: minCpuShareLoadBalancer");
-                break;
-            case 4:
-                System.out.println("Load balancer set to: minCpuLoadQueueBalancer");
-                break;
-            case 5:
-                System.out.println("Load balancer set to: reinforcement learner agent");
-                break;
-            default:
-                System.out.println("Load balancer set to: roundRobinLoadBalancer");
-                break;
-        }
+        System.out.println("Load balancer set to: " + balancers.current().getName());
+    }
+
+    /**
+     * Sets up the load balancing strategies and selects the one to use.
+     */
+    private void startBalancing() {
+        balancing = new Balancing();
+        balancers = new LoadBalancerRegistry();
+        loadBalancingAlg = balancers.use(loadBalancingAlg).getId();
+        displayLoadBalancer();
     }
 
     /**
@@ -154,13 +260,25 @@ public class EventManager implements Serializable {
      * and event re-delivery for the clients that were off-line.
      */
     public EventManager(int loadBalancingAlg) {
+        this(loadBalancingAlg, Constants.PUBLISHER_LANES);
+    }
+
+    /**
+     * Instantiates the data structures used by event manager and starts up
+     * the threads needed to service it. Messages are delivered to the
+     * accounts by "publisherLanes" lanes running in parallel.
+     */
+    public EventManager(int loadBalancingAlg, int publisherLanes) {
         this.loadBalancingAlg = loadBalancingAlg;
-        displayLoadBalancer();
-        newMessages = new LinkedBlockingDeque<Message>();
+        this.publisherLanes = Math.max(1, publisherLanes);
+        newMessages = new PriorityBlockingQueue<QueuedMessage>();
+        messageSequence = new AtomicLong();
+        nextTaskID = new AtomicInteger();
         //topics = new LinkedList<Topic>();
-        activeWorkers = new LinkedList<Account>();
-        accounts = new LinkedList<Account>();
-        users = new LinkedList<Account>();
+        activeWorkers = new CopyOnWriteArrayList<Account>();
+        accounts = new CopyOnWriteArrayList<Account>();
+        users = new CopyOnWriteArrayList<Account>();
+        accountIndex = new ConcurrentHashMap<Integer, Account>();
 //        activeWorkers = new LinkedList<Account>();
         //topicSubscribers = new HashMap<Topic, Set<Account>>();
         pendingMessages = new HashMap<Account, Set<Message>>();
@@ -168,11 +286,19 @@ public class EventManager implements Serializable {
         //pendingTasks = new HashMap<Integer, TaskMetadata>();
         pendingTasks = new ConcurrentHashMap<Integer, TaskMetadata>();
         stats = new ServerStats();
-        rlLoadBalancer = new QlearningLoadBalancer();
-        Thread eventsPusher = new Thread(new EventPublisher(newMessages));
-        eventsPusher.start();
-        Thread synchronizer = new Thread(new Synchronizer(accountsToSync));
-        synchronizer.start();
+        loadIndex = new LoadIndex();
+        workersById = Collections.emptyList();
+        queuedTasks = new LongAdder();
+        queuedSince = new LongAdder();
+        assignedWait = new LongAdder();
+        removalRequests = new HashMap<Integer, Long>();
+        userTasksInFlight = new ConcurrentHashMap<Integer, AtomicInteger>();
+        tasksInFlight = new AtomicInteger();
+        tasksByOwner = new ConcurrentHashMap<Long, TaskMetadata>();
+        assignedTasks = new ConcurrentHashMap<Integer, Deque<TaskMetadata>>();
+        startBalancing();
+        startPublishers();
+        Threads.start(new Synchronizer(accountsToSync), "Synchronizer");
         try {
             preLoad();
         } catch (UnknownHostException e) {
@@ -240,20 +366,101 @@ public class EventManager implements Serializable {
      */
     public void postLoadSetup() {
         //TODO update with data strucutures added in group project
+        if (accountIndex == null) {
+            //the object was saved by the version without the index
+            activeWorkers = new CopyOnWriteArrayList<Account>(new LinkedHashSet<Account>(activeWorkers));
+            accounts = new CopyOnWriteArrayList<Account>(accounts);
+            users = new CopyOnWriteArrayList<Account>(users);
+            accountIndex = new ConcurrentHashMap<Integer, Account>();
+            for (Account ac : accounts) {
+                accountIndex.put(ac.get_id(), ac);
+            }
+        }
+        loadIndex = new LoadIndex();
+        for (Account worker : activeWorkers) {
+            loadIndex.add(worker);
+        }
+        refreshWorkersById();
+        queuedTasks = new LongAdder();
+        queuedSince = new LongAdder();
+        assignedWait = new LongAdder();
+        userTasksInFlight = new ConcurrentHashMap<Integer, AtomicInteger>();
+        tasksInFlight = new AtomicInteger();
+        tasksByOwner = new ConcurrentHashMap<Long, TaskMetadata>();
+        assignedTasks = new ConcurrentHashMap<Integer, Deque<TaskMetadata>>();
+        List<TaskMetadata> byAssignment = new ArrayList<TaskMetadata>(pendingTasks.values());
+        Collections.sort(byAssignment, new Comparator<TaskMetadata>() {
+            @Override
+            public int compare(TaskMetadata a, TaskMetadata b) {
+                return Long.compare(a.getStartTime(), b.getStartTime());
+            }
+        });
+        for (TaskMetadata tm : byAssignment) {
+            if (tm.getExecutor() != null && tm.getStartTime() != -1) {
+                assignedTasks(tm.getExecutor()).addLast(tm);
+            }
+        }
+        for (TaskMetadata tm : pendingTasks.values()) {
+            tasksByOwner.put(ownerTaskKey(tm), tm);
+            if (tm.getStartTime() == -1) {
+                queueTask(tm);
+            } else {
+                assignedWait.add(tm.waitingTime());
+            }
+            userTasksInFlight(tm.getInitiator()).incrementAndGet();
+            tasksInFlight.incrementAndGet();
+        }
+        removalRequests = new HashMap<Integer, Long>();
+        if (nextTaskID == null) {
+            //the object was saved by the version with the id counter shared
+            //by the class, the ids of the pending tasks are not given again
+            int next = 0;
+            for (int taskId : pendingTasks.keySet()) {
+                next = Math.max(next, taskId + 1);
+            }
+            nextTaskID = new AtomicInteger(next);
+        }
+        if (!(newMessages instanceof PriorityBlockingQueue)) {
+            //the object was saved by the version with the FIFO queue
+            messageSequence = new AtomicLong();
+            BlockingQueue<?> saved = newMessages;
+            newMessages = new PriorityBlockingQueue<QueuedMessage>();
+            for (Object message : saved) {
+                enqueue((Message) message);
+            }
+        }
+        startBalancing();
+        startPublishers();
+        Threads.start(new Synchronizer(accountsToSync), "Synchronizer");
+        //System.out.println("Next available ID: " + nextAccountID);
+    }
+
+    /**
+     * Starts the event delivery service: the delivery lanes and the thread
+     * that dispatches the messages from the event queue into the lanes.
+     */
+    private void startPublishers() {
+        if (publisherLanes < 1) {
+            //the object was saved by the version without lanes
+            publisherLanes = Constants.PUBLISHER_LANES;
+        }
+        laneQueues = new ArrayList<BlockingQueue<Delivery>>(publisherLanes);
+        for (int i = 0; i < publisherLanes; i++) {
+            BlockingQueue<Delivery> laneQueue = new LinkedBlockingQueue<Delivery>();
+            laneQueues.add(laneQueue);
+            Thread lane = new Thread(new PublisherLane(laneQueue), "PublisherLane-" + i);
+            lane.start();
+        }
         Thread eventsPusher = new Thread(new EventPublisher(newMessages));
         eventsPusher.start();
-        Thread synchronizer = new Thread(new Synchronizer(accountsToSync));
-        synchronizer.start();
-        //System.out.println("Next available ID: " + nextAccountID);
     }
 
     public Account getAccount(int accountId) throws IllegalArgumentException {
-        for (Account ac : accounts) {
-            if (ac.get_id() == accountId) {
-                return ac;
-            }
+        Account ac = accountIndex.get(accountId);
+        if (ac == null) {
+            throw new IllegalArgumentException();
         }
-        throw new IllegalArgumentException();
+        return ac;
     }
 
     /**
@@ -268,25 +475,25 @@ public class EventManager implements Serializable {
      */
     public Account getAccount(int accountID, InetAddress location,
                               int portNumber, Constants.ClientType accountType) {
-        for (Account ac : accounts) {
-            if (ac.get_id() == accountID) {
-                ac.setLocation(location, portNumber);
-                switch (accountType) {
-                    case WORKER:
-                        activeWorkers.add(ac);
-                    default:
-                        break;
-                }
-                return ac;
+        Account ac = accountIndex.get(accountID);
+        if (ac != null) {
+            ac.setLocation(location, portNumber);
+            switch (accountType) {
+                case WORKER:
+                    addActiveWorker(ac);
+                default:
+                    break;
             }
+            return ac;
         }
         Account newAccount = null;
         synchronized (this) {
             newAccount = new Account(nextAccountID++, location, portNumber, accountType);
             accounts.add(newAccount);
+            accountIndex.put(newAccount.get_id(), newAccount);
             switch (accountType) {
                 case WORKER:
-                    activeWorkers.add(newAccount);
+                    addActiveWorker(newAccount);
                     //workersActiveTasks.put(newAccount,
                     //new HashSet<Message>());
                     break;
@@ -299,46 +506,333 @@ public class EventManager implements Serializable {
         return newAccount;
     }
 
+    /**
+     * Lists the worker as active, unless it is listed already.
+     *
+     * @param worker the worker that is online
+     */
+    private void addActiveWorker(Account worker) {
+        if (((CopyOnWriteArrayList<Account>) activeWorkers).addIfAbsent(worker)) {
+            loadIndex.add(worker);
+            refreshWorkersById();
+        }
+    }
+
+    /**
+     * Removes the worker from the list of active workers.
+     *
+     * @param worker the worker that is not reachable
+     */
+    private void removeActiveWorker(Account worker) {
+        if (activeWorkers.remove(worker)) {
+            loadIndex.remove(worker);
+            refreshWorkersById();
+        }
+    }
+
+    /**
+     * Rebuilds the copy of the active workers sorted by id.
+     */
+    private synchronized void refreshWorkersById() {
+        List<Account> workers = new ArrayList<Account>(activeWorkers);
+        Collections.sort(workers);
+        workersById = Collections.unmodifiableList(workers);
+    }
+
+    /**
+     * Assigns the task to the worker and updates the load of the worker (and
+     * of the worker the task was assigned to before, if any). The task's
+     * start time is the time of the assignment.
+     *
+     * @param tm                the task
+     * @param worker            the worker to execute the task
+     * @param estimatedCpuShare the estimated cpu share of the task
+     */
+    private void assignTask(TaskMetadata tm, Account worker, double estimatedCpuShare) {
+        Account previous = tm.getExecutor();
+        tm.assignTo(worker, estimatedCpuShare, balancing.estimateServiceTime(tm.getTask()));
+        loadIndex.update(previous);
+        loadIndex.update(worker);
+        assignedTasks(worker).addLast(tm);
+        trimAssignedTasks(previous);
+        long previousStart = tm.getStartTime();
+        tm.setStartTime();
+        if (previousStart == -1) {
+            queuedTasks.decrement();
+            queuedSince.add(-tm.getPendTime());
+            assignedWait.add(tm.getStartTime() - tm.getPendTime());
+        } else {
+            //the task is reassigned, it has waited since it was queued
+            assignedWait.add(tm.getStartTime() - previousStart);
+        }
+    }
+
+    /**
+     * Takes the task away from its worker, so it can be assigned again.
+     *
+     * @param tm the task
+     */
+    private void unassignTask(TaskMetadata tm) {
+        Account previous = tm.getExecutor();
+        tm.unassign();
+        loadIndex.update(previous);
+        trimAssignedTasks(previous);
+    }
+
+    /**
+     * Releases the completed task from the load of its worker.
+     *
+     * @param tm the completed task
+     */
+    private void completeTask(TaskMetadata tm) {
+        tm.complete();
+        tasksByOwner.remove(ownerTaskKey(tm), tm);
+        userTasksInFlight(tm.getInitiator()).decrementAndGet();
+        tasksInFlight.decrementAndGet();
+        loadIndex.update(tm.getExecutor());
+        loadIndex.update(tm.getBackupExecutor());
+        trimAssignedTasks(tm.getExecutor());
+        if (tm.getStartTime() == -1) {
+            queuedTasks.decrement();
+            queuedSince.add(-tm.getPendTime());
+        } else {
+            assignedWait.add(-(tm.getStartTime() - tm.getPendTime()));
+        }
+    }
+
+    /**
+     * @return the tasks assigned to the worker, the latest last
+     */
+    private Deque<TaskMetadata> assignedTasks(Account worker) {
+        Deque<TaskMetadata> tasks = assignedTasks.get(worker.get_id());
+        if (tasks == null) {
+            Deque<TaskMetadata> newTasks = new ConcurrentLinkedDeque<TaskMetadata>();
+            tasks = assignedTasks.putIfAbsent(worker.get_id(), newTasks);
+            if (tasks == null) {
+                tasks = newTasks;
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Drops the tasks no longer assigned to the worker from the head of its
+     * assigned tasks. The tasks mostly complete in the order they were
+     * assigned; the ones that do not are dropped once they reach the head.
+     *
+     * @param worker the worker, may be null
+     */
+    private void trimAssignedTasks(Account worker) {
+        if (worker == null) {
+            return;
+        }
+        Deque<TaskMetadata> tasks = assignedTasks(worker);
+        TaskMetadata head;
+        while ((head = tasks.peekFirst()) != null && !head.isAssignedTo(worker)) {
+            tasks.remove(head);
+        }
+    }
+
+    /**
+     * Counts the newly queued task in the waiting time of the pending tasks.
+     *
+     * @param tm the task
+     */
+    private void queueTask(TaskMetadata tm) {
+        queuedTasks.increment();
+        queuedSince.add(tm.getPendTime());
+    }
+
+    /**
+     * The total waiting time of the pending tasks, the reward of the RL
+     * balancer is based on it. A task assigned to a worker has waited from
+     * the time it was queued until it was assigned, a task not assigned yet
+     * has been waiting since it was queued.
+     *
+     * @return the total waiting time in milliseconds
+     */
+    private long pendingWaitingTime() {
+        return assignedWait.sum() + queuedTasks.sum() * System.currentTimeMillis() - queuedSince.sum();
+    }
+
+    /**
+     * The state of the server as seen by the load balancing strategies.
+     */
+    private class Balancing implements BalancingContext {
+
+        @Override
+        public List<Account> getActiveWorkers() {
+            return activeWorkers;
+        }
+
+        @Override
+        public List<Account> getWorkersById() {
+            return workersById;
+        }
+
+        @Override
+        public LoadIndex getLoadIndex() {
+            return loadIndex;
+        }
+
+        @Override
+        public double estimateCpuShare(Task task, double unknown) {
+            return stats.getCostModel().estimateCpuShare(task, unknown);
+        }
+
+        @Override
+        public double estimateServiceTime(Task task) {
+            double serviceTime = stats.getCostModel().estimateServiceTime(task, -1);
+            if (serviceTime == -1) {
+                serviceTime = stats.getAverageServiceTime();
+            }
+            return serviceTime == -1 ? 0 : serviceTime;
+        }
+
+        @Override
+        public long getPendingWaitingTime() {
+            return pendingWaitingTime();
+        }
+    }
+
     /**
      * Adds the event to the queue. The message delivery threads will later
-     * deliver the event to the subscribers
+     * deliver the event to the subscribers. No lock is taken: the id comes
+     * from nextTaskID and the task is registered in the concurrent
+     * pendingTasks before it is queued, so the task is known by the time
+     * it is placed.
      *
      * @param event the event
+     * @return false if the task was refused (see admit)
      */
-    public void addTask(Message message) {
-        TaskMetadata tm = null;
-        int originalTaskId;
+    public boolean addTask(Message message) {
         Task t = (Task) message.getArgs()[1];
-        originalTaskId = t.getId();
-        synchronized (this) {
-            t.setId(EventManager.nextTaskID);
-            //System.out.println("===ID " + EventManager.nextTaskID + " assigned to task");
-            nextTaskID++;
-            Account owner = getAccount((int) message.getArgs()[0]);
-            tm = new TaskMetadata(owner, null, t, originalTaskId);
-            pendingTasks.put(t.getId(), tm);
+        int originalTaskId = t.getId();
+        Account owner = getAccount((int) message.getArgs()[0]);
+        if (admit(owner, 1) == 0) {
+            return false;
+        }
+        t.setId(nextTaskID.getAndIncrement());
+        TaskMetadata tm = new TaskMetadata(owner, null, t, originalTaskId);
+        tm.setPendTime();
+        pendingTasks.put(t.getId(), tm);
+        tasksByOwner.put(ownerTaskKey(tm), tm);
+        queueTask(tm);
+        enqueue(message);
+        return true;
+    }
+
+    /**
+     * Adds a batch of tasks submitted by one client to the queue. The
+     * tasks get a range of consecutive ids at once, and the batch is queued
+     * as one event, so the message delivery threads place the whole batch
+     * at once. If not all the tasks are admitted (see admit), the first
+     * ones are taken in and the rest are refused.
+     *
+     * @param message the NEW_TASK_BATCH message
+     * @return the refused tasks, none if all the tasks were taken in
+     */
+    public Task[] addTasks(Message message) {
+        Task[] tasks = (Task[]) message.getArgs()[1];
+        Account owner = getAccount((int) message.getArgs()[0]);
+        int admitted = admit(owner, tasks.length);
+        if (admitted == 0) {
+            return tasks;
+        }
+        Task[] refused = Arrays.copyOfRange(tasks, admitted, tasks.length);
+        if (refused.length > 0) {
+            tasks = Arrays.copyOf(tasks, admitted);
+            message.getArgs()[1] = tasks;
+        }
+        int taskId = nextTaskID.getAndAdd(tasks.length);
+        for (Task t : tasks) {
+            int originalTaskId = t.getId();
+            t.setId(taskId++);
+            TaskMetadata tm = new TaskMetadata(owner, null, t, originalTaskId);
             tm.setPendTime();
-			/*System.out.println("Put " + pendingTasks.get(t.getId()) + "/" +
-					t.getId() + "/" + t + "/" +  
-			" into pending queue");*/
-            //generate new id for the task
-            //synchronized(this){
-            //((Task)message.getArgs()[1]).setId(EventManager.nextTaskID++);
-            //}
-            newMessages.add(message);
-            //return ((Task)message.getArgs()[1]).getId();
+            pendingTasks.put(t.getId(), tm);
+            tasksByOwner.put(ownerTaskKey(tm), tm);
+            queueTask(tm);
+        }
+        enqueue(message);
+        return refused;
+    }
+
+    /**
+     * Admission control: takes the user's new tasks in only while the user
+     * has fewer than MAX_TASKS_IN_FLIGHT_PER_USER tasks on the server and
+     * the server has fewer than MAX_TASKS_IN_FLIGHT, so a user sending tasks
+     * faster than the workers complete them can not fill the server up.
+     * The tasks taken in are counted until they complete or are aborted
+     * (see completeTask).
+     *
+     * @param owner the user submitting the tasks
+     * @param count the number of tasks
+     * @return the number of tasks taken in, up to count
+     */
+    private int admit(Account owner, int count) {
+        AtomicInteger userTasks = userTasksInFlight(owner);
+        int admitted = reserve(userTasks, count, Constants.MAX_TASKS_IN_FLIGHT_PER_USER);
+        int reserved = reserve(tasksInFlight, admitted, Constants.MAX_TASKS_IN_FLIGHT);
+        if (reserved < admitted) {
+            userTasks.addAndGet(reserved - admitted);
+        }
+        return reserved;
+    }
+
+    /**
+     * Adds up to count to the counter, without going over the limit.
+     *
+     * @return the amount added
+     */
+    private static int reserve(AtomicInteger counter, int count, int limit) {
+        while (true) {
+            int current = counter.get();
+            int taken = Math.max(0, Math.min(count, limit - current));
+            if (taken == 0 || counter.compareAndSet(current, current + taken)) {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * @return the key of the task in tasksByOwner: the owner's id and the
+     *         id the owner gave the task
+     */
+    private static long ownerTaskKey(int ownerId, int originalTaskId) {
+        return ((long) ownerId << 32) | (originalTaskId & 0xffffffffL);
+    }
+
+    private static long ownerTaskKey(TaskMetadata tm) {
+        return ownerTaskKey(tm.getInitiator().get_id(), tm.getOriginalTaskId());
+    }
+
+    /**
+     * @return the counter of the user's tasks on the server
+     */
+    private AtomicInteger userTasksInFlight(Account user) {
+        AtomicInteger count = userTasksInFlight.get(user.get_id());
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = userTasksInFlight.putIfAbsent(user.get_id(), newCount);
+            if (count == null) {
+                count = newCount;
+            }
         }
+        return count;
     }
 
     public void addResult(Message message) {
         //add this message to the queue
-        newMessages.add(message);
+        enqueue(message);
         // TODO remove the task from worker's queue
     }
 
     public void setLoadBalncer(int lb) {
-        loadBalancingAlg = lb;
+        LoadBalancer previous = balancers.current();
+        loadBalancingAlg = balancers.use(lb).getId();
         stats.resetStats();
+        System.out.println("Load balancer " + previous.getName() + ": " + previous.getMetrics());
         displayLoadBalancer();
     }
 
@@ -350,6 +844,8 @@ public class EventManager implements Serializable {
         try {
             Account ac = getAccount(accountId);
             ac.updatePerformance(p);
+            loadIndex.update(ac);
+            stealFor(ac);
         } catch (IllegalArgumentException e) {
             System.err.println("Account with id " + accountId + " reported its "
                     + "stats, but the server does not have a record of such "
@@ -359,6 +855,135 @@ public class EventManager implements Serializable {
         // TODO remove the task from worker's queue
     }
 
+    /**
+     * Adds the user's request to abort a task to the queue, it overtakes
+     * the tasks waiting to be placed (see enqueue).
+     *
+     * @param message the ABORT message from the user
+     */
+    public void abortTask(Message message) {
+        enqueue(message);
+    }
+
+    /**
+     * Adds the tasks a worker has given up (REMOVE_TASK) to the queue, they
+     * are reassigned in turn with the other events (see
+     * reassignRemovedTasks).
+     *
+     * @param message the REMOVE_TASK message from the worker
+     */
+    public void addRemovedTasks(Message message) {
+        enqueue(message);
+    }
+
+    /**
+     * Adds the message to the event queue. The queue is ordered by the
+     * virtual deadlines of the messages (see virtualDeadline), messages
+     * with the same virtual deadline in the order they were queued in.
+     *
+     * @param message the message to queue
+     */
+    private void enqueue(Message message) {
+        newMessages.add(new QueuedMessage(message, virtualDeadline(message),
+                messageSequence.getAndIncrement()));
+    }
+
+    /**
+     * The time (in milliseconds) the message should be processed by. The
+     * messages other than new tasks (results, aborts, tasks given up by the
+     * workers) are processed first, they do not wait for the tasks; a batch
+     * is as urgent as its most urgent task.
+     */
+    private long virtualDeadline(Message message) {
+        switch (message.getCommand()) {
+            case NEW_TASK:
+                return virtualDeadline((Task) message.getArgs()[1]);
+            case NEW_TASK_BATCH:
+                long earliest = Long.MAX_VALUE;
+                for (Task t : (Task[]) message.getArgs()[1]) {
+                    earliest = Math.min(earliest, virtualDeadline(t));
+                }
+                return earliest;
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * The time (in milliseconds) the task should be placed by: its deadline
+     * if it has one (earliest deadline first), otherwise TASK_DEFAULT_SLACK
+     * divided by (1 + priority) after it was submitted. A waiting task thus
+     * overtakes the tasks submitted later as it ages, whatever their
+     * priority, so no task starves.
+     */
+    private long virtualDeadline(Task t) {
+        TaskMetadata tm = pendingTasks.get(t.getId());
+        long submitted = tm == null ? System.currentTimeMillis() : tm.getPendTime();
+        if (t.getDeadline() > 0) {
+            return submitted + t.getDeadline();
+        }
+        return submitted + Constants.TASK_DEFAULT_SLACK / (1 + t.getPriority());
+    }
+
+    /**
+     * Moves tasks that have not started yet from the worker with the
+     * longest queue to the worker that has spare capacity (work stealing).
+     * The tasks are only requested here: the worker holding them gives up
+     * the ones it has not started yet (REMOVE_TASK), and only these are
+     * reassigned (see reassignRemovedTasks), so a task is never executed
+     * twice. Nothing is moved while there are tasks waiting for a worker.
+     *
+     * @param thief the worker that has reported its load
+     */
+    private void stealFor(Account thief) {
+        int assigned = thief.getAssignedTaskCount();
+        int spare = Constants.THREADS_IN_WORKER - assigned;
+        if (spare <= 0 || queuedTasks.sum() > 0 || !activeWorkers.contains(thief)) {
+            return;
+        }
+        Account victim = null;
+        int most = 0;
+        for (Account worker : activeWorkers) {
+            int count = worker.getAssignedTaskCount();
+            if (count > most) {
+                victim = worker;
+                most = count;
+            }
+        }
+        //only the tasks beyond the worker's threads are waiting in its queue
+        int count = Math.min(spare, Math.min(most - Constants.THREADS_IN_WORKER, (most - assigned) / 2));
+        if (victim == null || victim == thief || count <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (removalRequests) {
+            Long requested = removalRequests.get(victim.get_id());
+            if (requested != null && now - requested < Constants.RESPONSE_TIMEOUT) {
+                return;
+            }
+            removalRequests.put(victim.get_id(), now);
+        }
+        //the tasks assigned last are the last ones in the worker's queue
+        List<Integer> candidates = new ArrayList<Integer>(count);
+        Iterator<TaskMetadata> latest = assignedTasks(victim).descendingIterator();
+        while (candidates.size() < count && latest.hasNext()) {
+            TaskMetadata tm = latest.next();
+            //a task with a backup stays where it is (see speculate); a task
+            //assigned to the worker twice is listed twice
+            if (tm.isAssignedTo(victim) && tm.getBackupExecutor() == null
+                    && !candidates.contains(tm.getTask().getId())) {
+                candidates.add(tm.getTask().getId());
+            }
+        }
+        int[] taskIds = new int[candidates.size()];
+        for (int i = 0; i < taskIds.length; i++) {
+            taskIds[i] = candidates.get(i);
+        }
+        System.out.println("Asking worker " + victim.get_id() + " to give up " + taskIds.length
+                + " tasks for worker " + thief.get_id());
+        dispatch(victim, new Message(RequestType.REMOVE_TASK, thief.get_id(), taskIds));
+    }
+
     /**
      * Try to re-send all the messages to the client "ac" that were generated
      * for the client(based on client's subscriptions) while the client was
@@ -399,262 +1024,191 @@ public class EventManager implements Serializable {
     }
 
     /**
-     * The main method.
+     * Hands the message over to the delivery lane serving the recipient.
+     * Messages to the same recipient are delivered in the order they were
+     * dispatched.
      *
-     * @param args the arguments
+     * @param recipient the account to deliver the message to
+     * @param message   the message to deliver
      */
-    public static void main(String[] args) {
-        //new EventManager().startService();
+    private void dispatch(Account recipient, Message message) {
+        int lane = recipient.get_id() % laneQueues.size();
+        laneQueues.get(lane).add(new Delivery(recipient, message));
     }
 
     /**
-     * The class represents event delivery service. This object is attached to
-     * a queue of events received by the server that need to be delivered to the
-     * appropriate subscribers.
+     * Adds to the list of pending event - event that the server failed
+     * to deliver b/c the client is not accessible.
+     *
+     * @param ac the account for which the delivery failed
+     * @param m  the event that was not delivered in real-time
      */
-    private class EventPublisher implements Runnable {
-
-        /**
-         * The event queue that this object serves.
-         */
-        private BlockingQueue<Message> _queue;
-        private transient Socket kkSocket;
-        private ObjectOutputStream oos;
-        private ObjectInputStream ios;
-
-        private boolean pullMessages = true;
-        //private topicSubscribers
+    private void addToPending(Account ac, Message m) {
+        synchronized (pendingMessages) {
+            if (!pendingMessages.containsKey(ac)) {
+                Set<Message> es = new HashSet<Message>();
+                es.add(m);
+                pendingMessages.put(ac, es);
+            } else {
+                pendingMessages.get(ac).add(m);
+            }
+        }
+    }
+
+    /**
+     * Delivers a single message to the client. The message is pushed over the
+     * persistent connection that the client keeps with the server. If the
+     * client is not connected, the server falls back to connecting to the
+     * location the client has announced (see handshake).
+     *
+     * @param client  the recipient
+     * @param message the message to deliver
+     * @throws java.net.ConnectException if the client is not reachable
+     */
+    private void deliver(Account client, Message message) throws IOException {
+        MessageChannel channel = client.getChannel();
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.send(message);
+                return;
+            } catch (IOException e) {
+                //the connection is broken, try to reach the client directly
+                client.detachChannel(channel);
+                channel.close();
+            }
+        }
+        MessageChannel directChannel = handshake(client);
+        try {
+            directChannel.send(message);
+        } finally {
+            directChannel.close();
+        }
+    }
+
+    /**
+     * Connects to the location (host and port) that the client has announced
+     * and authenticates the client.
+     *
+     * @param client the client to connect to
+     * @return connection to the client, ready for a single message
+     * @throws java.net.ConnectException if the client is not reachable or
+     *                                   failed the authentication
+     */
+    private SocketMessageChannel handshake(Account client) throws IOException {
+        //get the location (host and port) of the client
+        InetAddress host = client.getLocation();
+        int port = client.get_portNumber();
+        SocketMessageChannel channel = new SocketMessageChannel(new Socket(host, port));
+        //the following block simulates the authentication
+        //protocol:
+        //1. Server connects to the client
+        //2. Server sends handshake message
+        //3. Client responds with handshake message with argument[0] set to its id
+        //4. Server verifies that the ID supplied by the client
+        //	 matches the ID of the client expected the server
+        //5. If matched:
+        //		Server sends a single "Message" object
+        //		otherwise:
+        //		drop connection and throw java.net.ConnectException
+        //===authentication protocol===
+        Message handshake = new Message(RequestType.HANDSHAKE, (Object) null);
+        channel.send(handshake);
+        handshake = channel.receive();
+        int id = (int) handshake.getArgs()[0];
+        if (id != client.get_id()) {
+            System.err.println("Authentication failed. Id sent: " + client.get_id() +
+                    "Client returned id " + id);
+            channel.close();
+            throw new java.net.ConnectException();
+        }
+        //===authentication protocol end===
+        return channel;
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args the arguments
+     */
+    public static void main(String[] args) {
+        //new EventManager().startService();
+    }
+
+    /**
+     * The class represents event delivery service. This object is attached to
+     * a queue of events received by the server that need to be delivered to the
+     * appropriate subscribers.
+     */
+    private class EventPublisher implements Runnable {
 
         /**
-         * Instantiates a new event listener i.e. attaches the event queue that
-         * this object will serve.
-         *
-         * @param queue the queue to serve
+         * The event queue that this object serves.
          */
-        public EventPublisher(BlockingQueue<Message> queue) {
-            _queue = queue;
-        }
+        private BlockingQueue<QueuedMessage> _queue;
 
-        //field used for round robin load balancer
-        private int nextWorker = -1;
+        private boolean pullMessages = true;
+        //private topicSubscribers
 
-        /*This load balancer returns an active worker in a round robin fashion.
-         * @Returns: the account (active worker) that is next in relation to the
-         * 			 previously returned worker. Null if no active
-         * 			 workers found.
+        /**
+         * Are the straggling tasks backed up (see speculate) ?
          */
-        private Account roundRobinLoadBalancer(Message message) {
-            if (activeWorkers.size() > 0) {
-                return activeWorkers.get(++nextWorker % activeWorkers.size());
-            } else {
-                return null;
-            }
-        }
+        private final boolean speculation =
+                Constants.Speculation.current() == Constants.Speculation.ON;
 
-        /*This load balancer returns an active worker with the lowest number of
-         * tasks currently in a queue or being executed.
-         * @Returns: the account (worker) with the lowest number of tasks
-         * 			 currently in a queue or being executed. Null if no active
-         * 			 workers found.
+        /**
+         * Time the straggling tasks were last looked for.
          */
-        private Account queueLengthLoadBalancer(Message message) {
-            HashMap<Account, Integer> queuesLength = new HashMap<Account, Integer>();
-            if (activeWorkers.size() > 0) {
-                for (Account ac : activeWorkers) {
-                    queuesLength.put(ac, new Integer(0));
-                }
-                for (Map.Entry<Integer, TaskMetadata> entry : pendingTasks.entrySet()) {
-                    Account ac = ((TaskMetadata) entry.getValue()).getExecutor();
-                    if (ac != null) {
-                        if (queuesLength.containsKey(ac)) {
-                            queuesLength.put(ac, queuesLength.get(ac) + 1);
-                        } else {
-                            queuesLength.put(ac, 1);
-                        }
-                    }
-                }
-                int minQueue = Integer.MAX_VALUE;
-                Account minQueueAccount = null;
-                for (Map.Entry<Account, Integer> entry : queuesLength.entrySet()) {
-                    if (entry.getValue() < minQueue) {
-                        minQueueAccount = entry.getKey();
-                        minQueue = entry.getValue();
-                    }
-                    //System.out.println(entry.getKey() + ": " +
-                    //	entry.getValue());
-                }
-                //System.out.println(minQueueAccount + ": " + minQueue);
-                return minQueueAccount;
-            } else {
-                return null;
-            }
-        }
+        private long lastSpeculation = 0;
 
-        /*This load returns an active worker with the lowest cpu load (from the
-         * latest reported worker's load)
-         * @Returns: the account (worker) with the lowest cpu load. Null if
-         * 			 no active workers found.
+        /**
+         * The latest completed tasks that had a backup running. The result
+         * of the copy that lost the race may still arrive, it is dropped.
          */
-        private Account minCpuShareLoadBalancer(Message message) {
-            if (activeWorkers.size() > 0) {
-                double minCpuShare = Double.MAX_VALUE;
-                Account minCpuShareAccount = null;
-                for (Account ac : activeWorkers) {
-                    if (minCpuShare > ac.getPerformance().getCpuLoad()) {
-                        minCpuShare = ac.getPerformance().getCpuLoad();
-                        minCpuShareAccount = ac;
+        private final Set<Integer> finishedSpeculations = Collections.newSetFromMap(
+                new LinkedHashMap<Integer, Boolean>() {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                        return size() > Constants.SPECULATION_HISTORY;
                     }
-                }
-                return minCpuShareAccount;
-            } else {
-                return null;
-            }
-        }
+                });
 
-        /*This load balancer returns an active worker with the cpu load low
-         * enough that the new task can have enough cpu to be processed.
-         * Task's cpu share is estimated based on the cpu share used by the
-         * tasks of the same type in the past. If this is the first task of this
-         * type, the worker with lowest current cpu load will be used
-         * @Returns: the account (worker). Null if no active workers found.
+        /**
+         * Instantiates a new event listener i.e. attaches the event queue that
+         * this object will serve.
+         *
+         * @param queue the queue to serve
          */
-        private Account fittingCpuShareLoadBalancer(Message message) {
-            HashMap<Account, Integer> queuesLength = new HashMap<Account, Integer>();
-            if (activeWorkers.size() > 0) {
-                Task t = (Task) message.getArgs()[1];
-                long taskTypeUID = t.getUID();
-                double taskTypeCpuShare = stats.getTaskTypesCpuShare(taskTypeUID);
-                //check if the server has processed the tasks of this type in
-                //the past
-                if (taskTypeCpuShare != -1) {
-                    for (Account ac : activeWorkers) {
-                        if (taskTypeCpuShare < (1 - ac.getPerformance().getCpuLoad())) {
-                            return ac;
-                        }
-                    }
-                }
-                return minCpuShareLoadBalancer(message);
-            } else {
-                return null;
-            }
+        public EventPublisher(BlockingQueue<QueuedMessage> queue) {
+            _queue = queue;
         }
 
-        /*This load balancer returns an active worker with the lowest cpu load
-         * based on the tasks already in workers' queues. Each tasks cpu load
-         * is estimated based on the cpu share used by the tasks of the same
-         * type in the past.
-         * @Returns: the account (worker). Null if no active workers found.
+        /*
+         * Master load balancer - the strategy in use (see LoadBalancerRegistry)
          */
-        private Account minCpuLoadQueueBalancer(Message message) {
-            double unknownTaskTypeWeight = 0.5;
-            HashMap<Account, Double> queuesLength = new HashMap<Account, Double>();
-            if (activeWorkers.size() > 0) {
-                for (Account ac : activeWorkers) {
-                    queuesLength.put(ac, new Double(0));
-                }
-                for (Map.Entry<Integer, TaskMetadata> entry : pendingTasks.entrySet()) {
-                    Account ac = ((TaskMetadata) entry.getValue()).getExecutor();
-                    if (ac != null) {
-                        long taskTypeUID = ((TaskMetadata) entry.getValue()).getTask().getUID();
-                        double taskTypeCpuShare = stats.getTaskTypesCpuShare(taskTypeUID);
-                        if (taskTypeCpuShare == -1) {
-                            taskTypeCpuShare = unknownTaskTypeWeight;
-                        }
-                        if (queuesLength.containsKey(ac)) {
-                            queuesLength.put(ac, queuesLength.get(ac) + taskTypeCpuShare);
-                        } else {
-                            queuesLength.put(ac, taskTypeCpuShare);
-                        }
-                    }
-                }
-                double minQueue = Double.MAX_VALUE;
-                Account minQueueAccount = null;
-                for (Map.Entry<Account, Double> entry : queuesLength.entrySet()) {
-                    if (entry.getValue() < minQueue || minQueueAccount == null) {
-                        minQueueAccount = entry.getKey();
-                        minQueue = entry.getValue();
-                    }
-                }
-                System.out.println("minCpuLoadQueue Load Balancer" + minQueueAccount + ": " + minQueue);
-                return minQueueAccount;
-            } else {
-                return null;
-            }
+        public Account loadBalancer(Message message) {
+            return balancers.select(balancing, (Task) message.getArgs()[1]);
         }
 
-        private Account reinforcementLearningBalancer(Message message) {
-            if (activeWorkers.size() > 0) {
-                int index = rlLoadBalancer.disPtch(activeWorkers, message);
-                return activeWorkers.get(index);
-            } else {
-                return null;
-            }
+        /*Places a whole batch of tasks in one pass with the strategy in use.
+         * @Returns: the account (worker) for each task of the batch, in the
+         * 			 same order. Null if no active workers found.
+         */
+        private Account[] batchLoadBalancer(Task[] batch) {
+            return balancers.selectBatch(balancing, batch);
         }
 
-        /*
-         * Master load balancer - allows to switch between different algorithms
+        /**
+         * @return the tasks of the batch that have not been aborted while
+         *         waiting in the queue
          */
-        public Account loadBalancer(Message message) {
-            switch (loadBalancingAlg) {
-                case 0:
-                    return roundRobinLoadBalancer(message);
-                case 1:
-                    return queueLengthLoadBalancer(message);
-                case 2:
-                    return fittingCpuShareLoadBalancer(message);
-                case 3:
-                    return minCpuShareLoadBalancer(message);
-                case 4:
-                    return minCpuLoadQueueBalancer(message);
-                case 5:
-                    return reinforcementLearningBalancer(message);
-                default:
-                    return roundRobinLoadBalancer(message);
-            }
-            //return roundRobinLoadBalancer(message);
-            //return queueLengthLoadBalancer(message);
-            //return fittingCpuShareLoadBalancer(message);
-            //return minCpuShareLoadBalancer(message);
-            //return minCpuLoadQueueBalancer(message);
-        }
-
-        private void handshake(Account client) throws IOException, ClassNotFoundException {
-            //get the location (host and port) of the client
-            InetAddress host = client.getLocation();
-            int port = client.get_portNumber();
-            kkSocket = new Socket(host, port);
-            oos = new ObjectOutputStream(kkSocket.getOutputStream());
-            ios = new ObjectInputStream(kkSocket.getInputStream());
-            //the following block simulates the authentication
-            //protocol:
-            //1. Server connects to the client
-            //2. Server sends handshake message
-            //3. Client responds with handshake message with argument[0] set to its id
-            //4. Server verifies that the ID supplied by the client
-            //	 matches the ID of the client expected the server
-            //5. If matched:
-            //		Server sends a single "Message" object
-            //		otherwise:
-            //		drop connection and throw java.net.ConnectException
-            //===authentication protocol===
-            Message handshake = new Message(RequestType.HANDSHAKE, (Object) null);
-			/*System.out.println("Sending handshake to the client. id: " + 
-					client.get_id() + 
-					" location:" + client.getLocation() +
-					" port: " + client.get_portNumber() );*/
-            oos.writeObject(handshake);
-            oos.flush();
-            handshake = (Message) ios.readObject();
-            int id = (int) handshake.getArgs()[0];
-            if (id != client.get_id()) {
-                System.err.println("Authentication failed. Id sent: " + client.get_id() +
-                        "Client returned id " + id);
-                kkSocket.close();
-                throw new java.net.ConnectException();
-            } else {
-                //System.out.println("Authentication succedded with " + client);
+        private Task[] liveTasks(Task[] tasks) {
+            List<Task> live = new ArrayList<Task>(tasks.length);
+            for (Task t : tasks) {
+                if (pendingTasks.containsKey(t.getId())) {
+                    live.add(t);
+                }
             }
-            //===authentication protocol end===
+            return live.size() == tasks.length ? tasks : live.toArray(new Task[live.size()]);
         }
 
         /**
@@ -673,71 +1227,106 @@ public class EventManager implements Serializable {
             try {
                 switch (message.getCommand()) {
                     case NEW_TASK:
+                        if (!pendingTasks.containsKey(((Task) message.getArgs()[1]).getId())) {
+                            //the task was aborted while waiting in the queue
+                            break;
+                        }
                         recipient = loadBalancer(message);
                         if (recipient == null) {
                             pullMessages = false;
                             System.err.println("Load balance failed to provide a worker");
                             throw new java.net.ConnectException();
                         }
+                        pullMessages = true;
                         synchronized (_queue) {
                             //System.out.println("Worker assigned to the message is: " + recipient);
                         }
-                        handshake(recipient);
-                        synchronized (_queue) {
-                            //System.out.println("Sending message " + message);
-                        }
-                        oos.writeObject(message);
-                        oos.flush();
                         Task t = (Task) message.getArgs()[1];
                         tm = pendingTasks.get(t.getId());
                         if (tm != null) {
-                            tm.setExecutor(recipient);
-                            tm.setStartTime();
+                            assignTask(tm, recipient, balancing.estimateCpuShare(t, AbstractLoadBalancer.UNKNOWN_TASK_TYPE_CPU_SHARE));
 
                         } else {
                             System.err.println("ERROR Could not find task " + t.getId() + " in pendingTasks");
                         }
+                        dispatch(recipient, message);
                         //synchronized(_queue){
                         //System.out.println("The message has been sent to: " + recipient);
                         //}
                         //pendingTasks.put(t.getId(), tm);
                         break;
+                    case NEW_TASK_BATCH:
+                        Task[] batch = liveTasks((Task[]) message.getArgs()[1]);
+                        if (batch.length == 0) {
+                            break;
+                        }
+                        Account[] placement = batchLoadBalancer(batch);
+                        if (placement == null) {
+                            pullMessages = false;
+                            System.err.println("Load balance failed to provide a worker");
+                            throw new java.net.ConnectException();
+                        }
+                        pullMessages = true;
+                        //one message per worker, carrying all the tasks placed on it
+                        Map<Account, List<Task>> workerTasks = new LinkedHashMap<Account, List<Task>>();
+                        for (int i = 0; i < batch.length; i++) {
+                            tm = pendingTasks.get(batch[i].getId());
+                            if (tm != null) {
+                                assignTask(tm, placement[i], balancing.estimateCpuShare(batch[i], AbstractLoadBalancer.UNKNOWN_TASK_TYPE_CPU_SHARE));
+                            } else {
+                                System.err.println("ERROR Could not find task " + batch[i].getId() + " in pendingTasks");
+                            }
+                            List<Task> assigned = workerTasks.get(placement[i]);
+                            if (assigned == null) {
+                                assigned = new ArrayList<Task>();
+                                workerTasks.put(placement[i], assigned);
+                            }
+                            assigned.add(batch[i]);
+                        }
+                        for (Map.Entry<Account, List<Task>> entry : workerTasks.entrySet()) {
+                            List<Task> assigned = entry.getValue();
+                            dispatch(entry.getKey(), new Message(RequestType.NEW_TASK_BATCH,
+                                    message.getArgs()[0], assigned.toArray(new Task[assigned.size()])));
+                        }
+                        break;
                     case RESULT:
                         int taskId = (int) (message.getArgs()[1]);
-                        if (!pendingTasks.containsKey(taskId)) {
+                        if (!pendingTasks.containsKey(taskId) && finishedSpeculations.remove(taskId)) {
+                            //the copy that lost the race
+                            break;
+                        } else if (!pendingTasks.containsKey(taskId)) {
                             throw new IOException("Worker has sent RESULT with task id of " +
                                     taskId + " but server has no record of such task");
                         } else {
                             tm = pendingTasks.get(taskId);
+                            completeTask(tm);
                             tm.setEndTime();
                             double cpuShare = (double) (message.getArgs()[3]);
                             tm.setCpuShare(cpuShare);
+                            if (message.getArgs().length > 4) {
+                                tm.setServiceTime((long) (message.getArgs()[4]));
+                            }
                             //reset task's Id to whatever the client initially assigned
                             message.getArgs()[1] = tm.getOriginalTaskId();
                             recipient = tm.getInitiator();
                             pendingTasks.remove(taskId);
+                            abortLoser(tm, (int) message.getArgs()[0]);
                         }
                         synchronized (_queue) {
                             //System.out.println("Sending result to client: " + recipient);
                         }
                         stats.logTask(tm);
-                        handshake(recipient);
-                        oos.writeObject(message);
-                        oos.flush();
-                        synchronized (_queue) {
-                            System.out.println("The message has been sent to: " + recipient +
-                                    "; " + (System.currentTimeMillis() / 1000));
-                        }
-                        if (loadBalancingAlg == 5) {
-                            TaskMetadata[] taskMetadata = new TaskMetadata[pendingTasks.size()];
-                            int i = 0;
-                            for (TaskMetadata m: pendingTasks.values()){
-                                taskMetadata[i++] = m;
-                            }
-                            State statePrime = new State(activeWorkers);
-                            statePrime=rlLoadBalancer.update(activeWorkers, tm, taskMetadata,statePrime);
-
-                        }
+                        dispatch(recipient, message);
+                        balancers.taskCompleted(balancing, tm.getTask().getId());
+                        break;
+                    case RESULT_BATCH:
+                        processResultBatch(message);
+                        break;
+                    case REMOVE_TASK:
+                        reassignRemovedTasks(message);
+                        break;
+                    case ABORT:
+                        abort(message);
                         break;
                     case STATS:
                         addStats(message);
@@ -748,7 +1337,6 @@ public class EventManager implements Serializable {
                         System.err.println("Invalid message command:" + message.getCommand());
                         break;
                 }
-                kkSocket.close();
             }
 			/*try{
 				handshake(recipient);
@@ -768,65 +1356,235 @@ public class EventManager implements Serializable {
 				}
 				kkSocket.close();
 			}*/ catch (java.net.ConnectException e) {
-                synchronized (_queue) {
-                    System.err.println("Failed to send the message to: " + recipient);
-                }
-                //the client did not supply the correct ID or no one is
-                //listening on the host/port associated with the client
-                //i.e. the client is offline. Store the event for
-                //re-delivery later (if it's task result) or put back into the
-                //queue so the task is sent to another worker(if it's new task
-                //to execute).
-                switch (message.getCommand()) {
-                    case NEW_TASK:
-                        //put event back into queue to deliver to another worker
-                        newMessages.add(message);
-                        //addTask(message);
-                        //remove the node from a list of active worker nodes
-                        if (recipient != null) {
-                            Iterator<Account> it = activeWorkers.iterator();
-                            while (it.hasNext()) {
-                                Account ac = it.next();
-                                if (ac.equals(recipient)) {
-                                    it.remove();
-                                }
-                            }
-                        }
-                        break;
-                    case RESULT:
-                        System.out.println("Client " + recipient.get_id() +
-                                " is offline.");
-                        addToPending(recipient, message);
-                        break;
-                    default:
-                        break;
-                }
-
+                //no worker is available to execute the task. Put event
+                //back into queue to deliver to another worker later
+                enqueue(message);
             } catch (IOException e) {
                 e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
             }
         }
 
         /**
-         * Adds to the list of pending event - event that the server failed
-         * to deliver b/c the client is not accessible.
+         * Processes the results of a number of tasks as one unit: the tasks
+         * are removed from the pending tasks in one pass, logged with one
+         * stats update, and each client gets all of its results in a single
+         * RESULT_BATCH message.
          *
-         * @param ac the account for which the delivery failed
-         * @param e  the event that was not delivered in real-time
+         * @param message the RESULT_BATCH message from the worker
          */
-        private void addToPending(Account ac, Message m) {
-            if (!pendingMessages.containsKey(ac)) {
-                Set<Message> es = new HashSet<Message>();
-                es.add(m);
-                pendingMessages.put(ac, es);
+        private void processResultBatch(Message message) {
+            int[] taskIds = (int[]) message.getArgs()[1];
+            Object[] results = (Object[]) message.getArgs()[2];
+            double[] cpuShares = (double[]) message.getArgs()[3];
+            long[] executionTimes = message.getArgs().length > 4
+                    ? (long[]) message.getArgs()[4] : null;
+            List<TaskMetadata> completed = new ArrayList<TaskMetadata>(taskIds.length);
+            Map<Account, List<Integer>> clientResults = new LinkedHashMap<Account, List<Integer>>();
+            for (int i = 0; i < taskIds.length; i++) {
+                TaskMetadata tm = pendingTasks.remove(taskIds[i]);
+                if (tm == null && finishedSpeculations.remove(taskIds[i])) {
+                    //the copy that lost the race
+                    continue;
+                } else if (tm == null) {
+                    System.err.println("Worker has sent RESULT with task id of " +
+                            taskIds[i] + " but server has no record of such task");
+                    continue;
+                }
+                completeTask(tm);
+                tm.setEndTime();
+                tm.setCpuShare(cpuShares[i]);
+                if (executionTimes != null) {
+                    tm.setServiceTime(executionTimes[i]);
+                }
+                abortLoser(tm, (int) message.getArgs()[0]);
+                completed.add(tm);
+                List<Integer> indices = clientResults.get(tm.getInitiator());
+                if (indices == null) {
+                    indices = new ArrayList<Integer>();
+                    clientResults.put(tm.getInitiator(), indices);
+                }
+                indices.add(completed.size() - 1);
+                results[completed.size() - 1] = results[i];
+                cpuShares[completed.size() - 1] = cpuShares[i];
+            }
+            stats.logTasks(completed);
+            for (Map.Entry<Account, List<Integer>> entry : clientResults.entrySet()) {
+                List<Integer> indices = entry.getValue();
+                int[] clientTaskIds = new int[indices.size()];
+                Object[] clientTaskResults = new Object[indices.size()];
+                double[] clientCpuShares = new double[indices.size()];
+                for (int j = 0; j < indices.size(); j++) {
+                    int k = indices.get(j);
+                    //reset task's Id to whatever the client initially assigned
+                    clientTaskIds[j] = completed.get(k).getOriginalTaskId();
+                    clientTaskResults[j] = results[k];
+                    clientCpuShares[j] = cpuShares[k];
+                }
+                dispatch(entry.getKey(), new Message(RequestType.RESULT_BATCH,
+                        message.getArgs()[0], clientTaskIds, clientTaskResults, clientCpuShares));
+            }
+            for (TaskMetadata tm : completed) {
+                balancers.taskCompleted(balancing, tm.getTask().getId());
+            }
+        }
+
+        /**
+         * Aborts the user's task, found by its owner and the id the owner
+         * gave it (see tasksByOwner). A task that has not been placed yet is
+         * skipped when it comes out of the queue, a placed task is aborted
+         * by its worker.
+         * Either way the task is no longer pending, so a result that
+         * crosses the ABORT on its way is dropped.
+         *
+         * @param message the ABORT message from the user
+         */
+        private void abort(Message message) {
+            int userId = (int) message.getArgs()[0];
+            int originalTaskId = (int) message.getArgs()[1];
+            TaskMetadata tm = tasksByOwner.get(ownerTaskKey(userId, originalTaskId));
+            if (tm == null) {
+                System.err.println("User " + userId + " has aborted task " + originalTaskId
+                        + " but server has no record of such task");
+                return;
+            }
+            int taskId = tm.getTask().getId();
+            pendingTasks.remove(taskId);
+            Account executor = tm.getExecutor();
+            completeTask(tm);
+            if (executor == null) {
+                //the task is skipped when its message comes out of the queue
+                System.out.println("Aborted task " + taskId + " before it was placed");
             } else {
-                pendingMessages.get(ac).add(m);
+                dispatch(executor, new Message(RequestType.ABORT, userId, taskId));
+                if (tm.getBackupExecutor() != null) {
+                    dispatch(tm.getBackupExecutor(), new Message(RequestType.ABORT, userId, taskId));
+                    finishedSpeculations.add(taskId);
+                }
+                balancers.taskCompleted(balancing, taskId);
+                System.out.println("Aborted task " + taskId + " on worker " + executor.get_id());
+            }
+        }
+
+        /**
+         * Reassigns the tasks a worker has given up to the worker they were
+         * taken for (see stealFor). A task is moved only if the server still
+         * has it assigned to the worker that gave it up, so each task stays
+         * in pendingTasks under the same id and is counted in the load of
+         * exactly one worker. If the other worker has left in the meantime,
+         * the tasks are placed again by the load balancer.
+         *
+         * @param message the REMOVE_TASK message from the worker
+         */
+        private void reassignRemovedTasks(Message message) {
+            int victimId = (int) message.getArgs()[0];
+            int[] taskIds = (int[]) message.getArgs()[1];
+            int thiefId = (int) message.getArgs()[2];
+            synchronized (removalRequests) {
+                removalRequests.remove(victimId);
+            }
+            Account thief = accountIndex.get(thiefId);
+            if (thief != null && !activeWorkers.contains(thief)) {
+                thief = null;
+            }
+            List<Task> moved = new ArrayList<Task>(taskIds.length);
+            for (int taskId : taskIds) {
+                TaskMetadata tm = pendingTasks.get(taskId);
+                if (tm == null || tm.getExecutor() == null || tm.getExecutor().get_id() != victimId) {
+                    System.err.println("Worker " + victimId + " has given up task " + taskId
+                            + " but server has no record of it assigned to the worker");
+                    continue;
+                }
+                Task t = tm.getTask();
+                if (thief != null) {
+                    assignTask(tm, thief, balancing.estimateCpuShare(t, AbstractLoadBalancer.UNKNOWN_TASK_TYPE_CPU_SHARE));
+                    moved.add(t);
+                } else {
+                    unassignTask(tm);
+                    enqueue(new Message(RequestType.NEW_TASK, tm.getInitiator().get_id(), t));
+                }
+            }
+            if (!moved.isEmpty()) {
+                System.out.println("Moved " + moved.size() + " tasks from worker " + victimId
+                        + " to worker " + thiefId);
+                dispatch(thief, new Message(RequestType.NEW_TASK_BATCH, thiefId,
+                        moved.toArray(new Task[moved.size()])));
+            }
+        }
+
+        /**
+         * Backs up the straggling tasks (see Constants.Speculation): a task
+         * that has been running for longer than SPECULATION_PERCENTILE of
+         * the latest tasks of its class and size class took is sent to
+         * another worker as well, if one has a free thread. The first result is passed on,
+         * the other copy is aborted (see abortLoser). Each task is backed
+         * up once at most.
+         */
+        private void speculate() {
+            long now = System.currentTimeMillis();
+            if (now - lastSpeculation < Constants.SPECULATION_INTERVAL) {
+                return;
+            }
+            lastSpeculation = now;
+            //by task class, then size class
+            Map<Class<?>, Map<Integer, Long>> thresholds = new HashMap<Class<?>, Map<Integer, Long>>();
+            for (TaskMetadata tm : pendingTasks.values()) {
+                Account executor = tm.getExecutor();
+                if (executor == null || tm.getBackupExecutor() != null || tm.getStartTime() == -1) {
+                    continue;
+                }
+                Task task = tm.getTask();
+                Map<Integer, Long> classThresholds = thresholds.get(task.getClass());
+                if (classThresholds == null) {
+                    classThresholds = new HashMap<Integer, Long>();
+                    thresholds.put(task.getClass(), classThresholds);
+                }
+                Long threshold = classThresholds.get(task.getCostBucket());
+                if (threshold == null) {
+                    threshold = stats.getTaskTypeCompletionTimePercentile(task, Constants.SPECULATION_PERCENTILE);
+                    classThresholds.put(task.getCostBucket(), threshold);
+                }
+                if (threshold < 0 || now - tm.getStartTime() <= threshold) {
+                    continue;
+                }
+                Account backup = null;
+                for (Account worker : activeWorkers) {
+                    if (worker != executor && worker.getAssignedTaskCount() < Constants.THREADS_IN_WORKER
+                            && (backup == null || worker.getAssignedTaskCount() < backup.getAssignedTaskCount())) {
+                        backup = worker;
+                    }
+                }
+                if (backup == null) {
+                    //no spare capacity
+                    return;
+                }
+                tm.assignBackup(backup);
+                loadIndex.update(backup);
+                System.out.println("Backing up task " + tm.getTask().getId() + " of worker "
+                        + executor.get_id() + " on worker " + backup.get_id());
+                dispatch(backup, new Message(RequestType.NEW_TASK, tm.getInitiator().get_id(), tm.getTask()));
             }
         }
 
+        /**
+         * The task has completed on one of the workers running it. If a
+         * backup copy was running, the copy on the other worker is aborted.
+         *
+         * @param tm       the completed task
+         * @param winnerId id of the worker that has sent the result
+         */
+        private void abortLoser(TaskMetadata tm, int winnerId) {
+            Account backup = tm.getBackupExecutor();
+            if (backup == null) {
+                return;
+            }
+            Account loser = backup.get_id() == winnerId ? tm.getExecutor() : backup;
+            int taskId = tm.getTask().getId();
+            finishedSpeculations.add(taskId);
+            dispatch(loser, new Message(RequestType.ABORT, tm.getInitiator().get_id(), taskId));
+            System.out.println("Task " + taskId + " completed on worker " + winnerId
+                    + ", aborting the copy on worker " + loser.get_id());
+        }
+
         /**
          * Infinitely pull the event from the queue and process them(deliver)
          * to the corresponding clients
@@ -845,7 +1603,17 @@ public class EventManager implements Serializable {
                 }
                 Message m;
                 try {
-                    m = _queue.take();
+                    if (speculation) {
+                        QueuedMessage queued = _queue.poll(Constants.SPECULATION_INTERVAL,
+                                TimeUnit.MILLISECONDS);
+                        speculate();
+                        if (queued == null) {
+                            continue;
+                        }
+                        m = queued.message;
+                    } else {
+                        m = _queue.take().message;
+                    }
                     synchronized (_queue) {
                         //System.out.println("Message " + m + " has been pulled from a queue");
                     }
@@ -858,6 +1626,162 @@ public class EventManager implements Serializable {
         }
     }
 
+    /**
+     * A message waiting in the event queue, with the time it should be
+     * processed by (see enqueue).
+     */
+    private static class QueuedMessage implements Comparable<QueuedMessage>, Serializable {
+
+        /**
+         * The Constant serialVersionUID. used for serialization.
+         */
+        private static final long serialVersionUID = 4820937115583047761L;
+
+        private final Message message;
+
+        private final long virtualDeadline;
+
+        private final long sequence;
+
+        public QueuedMessage(Message message, long virtualDeadline, long sequence) {
+            this.message = message;
+            this.virtualDeadline = virtualDeadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueuedMessage other) {
+            if (virtualDeadline != other.virtualDeadline) {
+                return virtualDeadline < other.virtualDeadline ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * A message together with the account it has to be delivered to.
+     */
+    private static class Delivery {
+
+        /**
+         * The account to deliver the message to.
+         */
+        private final Account recipient;
+
+        /**
+         * The message to deliver.
+         */
+        private final Message message;
+
+        public Delivery(Account recipient, Message message) {
+            this.recipient = recipient;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The class represents one lane of the event delivery service. The
+     * EventPublisher decides where each message goes and hands it over to the
+     * lane serving the recipient. Each account is served by exactly one lane,
+     * so the messages to the same account keep their order, while a slow or
+     * unreachable account only holds up the accounts sharing its lane.
+     */
+    private class PublisherLane implements Runnable {
+
+        /**
+         * The deliveries that this lane serves.
+         */
+        private BlockingQueue<Delivery> _deliveries;
+
+        /**
+         * Instantiates a new lane attached to the queue of deliveries.
+         *
+         * @param deliveries the queue to serve
+         */
+        public PublisherLane(BlockingQueue<Delivery> deliveries) {
+            _deliveries = deliveries;
+        }
+
+        /**
+         * Delivers a single message. If the recipient is not reachable, the
+         * message is stored for re-delivery later (if it's task result) or put
+         * back into the event queue so the task is sent to another worker (if
+         * it's new task to execute).
+         *
+         * @param delivery the message and its recipient
+         */
+        private void send(Delivery delivery) {
+            Account recipient = delivery.recipient;
+            Message message = delivery.message;
+            try {
+                deliver(recipient, message);
+                if (message.getCommand() == RequestType.RESULT
+                        || message.getCommand() == RequestType.RESULT_BATCH) {
+                    System.out.println("The message has been sent to: " + recipient +
+                            "; " + (System.currentTimeMillis() / 1000));
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to send the message to: " + recipient);
+                //the client did not supply the correct ID or no one is
+                //listening on the host/port associated with the client
+                //i.e. the client is offline.
+                switch (message.getCommand()) {
+                    case NEW_TASK:
+                        //remove the node from a list of active worker nodes
+                        removeActiveWorker(recipient);
+                        Task t = (Task) message.getArgs()[1];
+                        TaskMetadata tm = pendingTasks.get(t.getId());
+                        Account backup = tm == null ? null : tm.getBackupExecutor();
+                        if (backup != null && backup.get_id() == recipient.get_id()) {
+                            //a backup copy (see speculate), the task keeps
+                            //running on its executor
+                            tm.dropBackup();
+                            loadIndex.update(backup);
+                            break;
+                        }
+                        //put event back into queue to deliver to another worker
+                        if (tm != null) {
+                            unassignTask(tm);
+                        }
+                        enqueue(message);
+                        break;
+                    case NEW_TASK_BATCH:
+                        //same as above, for every task of the batch
+                        removeActiveWorker(recipient);
+                        for (Task batchTask : (Task[]) message.getArgs()[1]) {
+                            TaskMetadata batchTm = pendingTasks.get(batchTask.getId());
+                            if (batchTm != null) {
+                                unassignTask(batchTm);
+                            }
+                        }
+                        enqueue(message);
+                        break;
+                    case RESULT:
+                    case RESULT_BATCH:
+                        System.out.println("Client " + recipient.get_id() +
+                                " is offline.");
+                        addToPending(recipient, message);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Infinitely pull the deliveries from the queue and carry them out.
+         */
+        public void run() {
+            while (true) {
+                try {
+                    send(_deliveries.take());
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /**
      * The class represent event re-delivery service. This object is attached to
      * a queue of accounts that notified the server that they are back online.
@@ -874,10 +1798,6 @@ public class EventManager implements Serializable {
          */
         private BlockingQueue<Account> myAccountsToSync;
 
-        private transient Socket kkSocket;
-        private ObjectOutputStream oos;
-        private ObjectInputStream ios;
-
         /**
          * Instantiates a new synchronizer. Attaches the queue of clients to
          * synchronize that this object will be serving
@@ -888,46 +1808,6 @@ public class EventManager implements Serializable {
             myAccountsToSync = accountQueue;
         }
 
-        private void handshake(Account client) throws IOException, ClassNotFoundException {
-            //get the location (host and port) of the client
-            InetAddress host = client.getLocation();
-            int port = client.get_portNumber();
-            kkSocket = new Socket(host, port);
-            ObjectOutputStream oos =
-                    new ObjectOutputStream(kkSocket.getOutputStream());
-            ObjectInputStream ios =
-                    new ObjectInputStream(kkSocket.getInputStream());
-            //the following block simulates the authentication
-            //protocol:
-            //1. Server connects to the client
-            //2. Server sends handshake message
-            //3. Client responds with handshake message with argument[0] set to its id
-            //4. Server verifies that the ID supplied by the client
-            //	 matches the ID of the client expected the server
-            //5. If matched:
-            //		Server sends a single "Message" object
-            //		otherwise:
-            //		drop connection and throw java.net.ConnectException
-            //===authentication protocol===
-            Message handshake = new Message(RequestType.HANDSHAKE, (Object) null);
-			/*System.out.println("Sending handshake to the client. id: " + 
-					client.get_id() + 
-					" location:" + client.getLocation() +
-					" port: " + client.get_portNumber() );*/
-            oos.writeObject(handshake);
-            handshake = (Message) ios.readObject();
-            int id = (int) handshake.getArgs()[0];
-            if (id != client.get_id()) {
-                System.err.println("Authentication failed. Client " +
-                        "returned id " + id);
-                kkSocket.close();
-                throw new java.net.ConnectException();
-            } else {
-                //System.out.println("Authentication succedded");
-            }
-            //===authentication protocol end===
-        }
-
         /**
          * Resend the events to the client "ac".
          *
@@ -947,15 +1827,13 @@ public class EventManager implements Serializable {
                     try {
                         switch (message.getCommand()) {
                             case RESULT:
-                                handshake(ac);
-                                oos.writeObject(message);
-                                oos.flush();
+                            case RESULT_BATCH:
+                                deliver(ac, message);
                                 break;
                             default:
                                 System.err.println("Invalid message command:" + message.getCommand());
                                 break;
                         }
-                        kkSocket.close();
                         //remove the event from the redelivery list only if it
                         //was successfully re-delivered.
                         messageIter.remove();
@@ -967,9 +1845,6 @@ public class EventManager implements Serializable {
                         addToPending(ac, message);
                     } catch (IOException exc) {
                         exc.printStackTrace();
-                    } catch (ClassNotFoundException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
                     }
                 }
                 //make sure that no new event were placed for re-delivery to
@@ -980,23 +1855,6 @@ public class EventManager implements Serializable {
             }
         }
 
-        /**
-         * Adds to the list of pending event - event that the server failed
-         * to re-deliver b/c the client is not accessible.
-         *
-         * @param ac the account for which the delivery failed
-         * @param m  the event that was not delivered in real-time
-         */
-        private void addToPending(Account ac, Message m) {
-            if (!pendingMessages.containsKey(ac)) {
-                Set<Message> es = new HashSet<Message>();
-                es.add(m);
-                pendingMessages.put(ac, es);
-            } else {
-                pendingMessages.get(ac).add(m);
-            }
-        }
-
         /**
          * Indefinitely pull the accounts that need to be updated from the queue
          * and process them: deliver the events generated while the client was
@@ -0,0 +1,191 @@
+package Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Common.Constants;
+import Common.Message;
+import Common.MessageChannel;
+import Common.SelectorGate;
+import Common.SocketMessageChannel;
+import Common.Threads;
+
+/**
+ * Compares the ways the gates (PubSubGate, Receiver) can serve accepted
+ * connections: a platform thread per connection (new Thread(...)), a
+ * virtual thread per connection, and a selector-driven gate.
+ * A burst of short connections is opened by a number of concurrent
+ * clients (like a MainScript run with many users), each connection
+ * carries one request and its response, the way PerformanceReporter and
+ * result deliveries used to. Reports throughput and the peak number of
+ * live threads in the process (client threads included, the same for
+ * every mode).
+ * Usage: GateBenchmark [clients] [connections per client]
+ */
+public class GateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		System.out.println("Virtual threads supported: " + Threads.virtualThreadsSupported());
+		System.out.println(clients + " clients, " + connections + " connections each.");
+		//warm up
+		for (Constants.IoMode mode : Constants.IoMode.values()) {
+			runBenchmark(mode, clients, Math.max(1, connections / 10), false);
+		}
+		for (Constants.IoMode mode : Constants.IoMode.values()) {
+			runBenchmark(mode, clients, connections, true);
+		}
+	}
+
+	/**
+	 * Run a single burst against a gate served in the given mode
+	 * @param mode - how the gate serves accepted connections
+	 * @param clients - number of concurrent clients
+	 * @param connections - number of connections each client opens
+	 * @param report - print the results ?
+	 */
+	private static void runBenchmark(final Constants.IoMode mode, int clients,
+			final int connections, boolean report) throws Exception {
+		final ServerSocket serverSocket = SelectorGate.bind(0);
+		final int port = serverSocket.getLocalPort();
+		Thread gate = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve(mode, serverSocket);
+			}
+		}, "Gate-" + mode);
+		gate.setDaemon(true);
+		gate.start();
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		final AtomicInteger failures = new AtomicInteger(0);
+		final InetAddress host = InetAddress.getLoopbackAddress();
+		ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			final int clientId = i;
+			clientPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < connections; j++) {
+						try {
+							SocketMessageChannel channel = new SocketMessageChannel(new Socket(host, port));
+							try {
+								channel.send(new Message(Constants.RequestType.STATS, clientId, j));
+								channel.receive();
+							} finally {
+								channel.close();
+							}
+						} catch (IOException e) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		clientPool.shutdown();
+		clientPool.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		int peakThreads = threads.getPeakThreadCount();
+		serverSocket.close();
+		gate.join(2000);
+		if (report) {
+			int total = clients * connections;
+			System.out.println(String.format("%-8s %7d connections in %6d ms, %8.0f conn/s, peak threads %5d, failed %d",
+					mode, total, elapsed / 1000000, total / (elapsed / 1e9), peakThreads, failures.get()));
+		}
+	}
+
+	/**
+	 * Accept connections until the server socket is closed
+	 * @param mode - how accepted connections are served
+	 * @param serverSocket - socket to accept connections on
+	 */
+	private static void serve(Constants.IoMode mode, ServerSocket serverSocket) {
+		if (mode == Constants.IoMode.NIO) {
+			try {
+				new SelectorGate(serverSocket.getChannel(), new SelectorGate.HandlerFactory() {
+					@Override
+					public SelectorGate.ConnectionHandler connectionAccepted(MessageChannel channel) {
+						return new EchoHandler();
+					}
+				}).run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		while (! serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				Runnable agent = new Runnable() {
+					@Override
+					public void run() {
+						echo(socket);
+					}
+				};
+				if (mode == Constants.IoMode.VIRTUAL) {
+					Threads.startVirtual(agent, "Agent");
+				} else {
+					new Thread(agent).start();
+				}
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Answer every request received over a blocking connection,
+	 * until the other side disconnects
+	 * @param socket - accepted connection
+	 */
+	private static void echo(Socket socket) {
+		SocketMessageChannel channel = null;
+		try {
+			channel = new SocketMessageChannel(socket);
+			while (channel.isOpen()) {
+				Message request = channel.receive();
+				channel.reply(request, new Message(Constants.RequestType.STATS, request.getArgs()));
+			}
+		} catch (EOFException e) {
+			//the client has closed the connection
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Answers every request received over a connection served by
+	 * a selector-driven gate
+	 */
+	private static class EchoHandler implements SelectorGate.ConnectionHandler {
+
+		@Override
+		public void messageReceived(MessageChannel channel, Message request) {
+			try {
+				channel.reply(request, new Message(Constants.RequestType.STATS, request.getArgs()));
+			} catch (IOException e) {
+				channel.close();
+			}
+		}
+
+		@Override
+		public void connectionClosed(MessageChannel channel) {
+		}
+	}
+}
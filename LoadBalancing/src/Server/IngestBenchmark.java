@@ -0,0 +1,135 @@
+package Server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import Common.Constants;
+import Common.Message;
+import Common.Task;
+import Server.Balancing.RoundRobinBalancer;
+import Tasks.Timer;
+
+/**
+ * Measures how fast the server takes in new tasks (EventManager.addTask)
+ * submitted by many clients at once, the way the agents of the connected
+ * clients (PubSubAgent) hand them over. Each client submits from its own
+ * thread. The run marked "serialized" makes the same calls one at a time
+ * under one lock. It still runs the current addTask, not the code that
+ * came before it, so it only shows how much the clients gain from not
+ * waiting for each other. No worker is connected, so the tasks stay
+ * pending; the ids given to them are checked to be unique.
+ * Usage: IngestBenchmark [clients] [tasks per client]
+ */
+public class IngestBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+		int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		//every task is taken in, unless limits were given (see admission
+		//control in EventManager)
+		System.setProperty("tasks.max.per.user", 
+				System.getProperty("tasks.max.per.user", String.valueOf(Integer.MAX_VALUE)));
+		System.setProperty("tasks.max", System.getProperty("tasks.max", String.valueOf(Integer.MAX_VALUE)));
+		System.out.println(clients + " clients, " + tasks + " tasks each.");
+		PrintStream out = System.out;
+		//the event manager logs the messages it processes
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		try {
+			//warm up
+			for (boolean serialized : new boolean[] { true, false }) {
+				run(clients, Math.max(1, tasks / 10), serialized, null);
+			}
+			for (boolean serialized : new boolean[] { true, false }) {
+				run(clients, tasks, serialized, out);
+			}
+		} finally {
+			System.setOut(out);
+		}
+		//the event manager's threads do not stop
+		System.exit(0);
+	}
+
+	/**
+	 * Submit the tasks of every client to a new event manager
+	 * @param clients - number of concurrent clients
+	 * @param tasks - number of tasks each client submits
+	 * @param serialized - make the calls one at a time ?
+	 * @param report - where to print the results, null to not print them
+	 */
+	private static void run(int clients, final int tasks, final boolean serialized,
+			PrintStream report) throws Exception {
+		final EventManager manager = new EventManager(RoundRobinBalancer.ID);
+		final Message[][] messages = new Message[clients][tasks];
+		for (int i = 0; i < clients; i++) {
+			Account user = manager.getAccount(Constants.NULL_ID, InetAddress.getLoopbackAddress(),
+					30000 + i, Constants.ClientType.USER);
+			for (int j = 0; j < tasks; j++) {
+				Task task = new Timer(1, 1);
+				task.setId(j);
+				messages[i][j] = new Message(Constants.RequestType.NEW_TASK, user.get_id(), task);
+			}
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+		for (int i = 0; i < clients; i++) {
+			final Message[] submitted = messages[i];
+			clientPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (Message message : submitted) {
+						if (serialized) {
+							synchronized (manager) {
+								manager.addTask(message);
+							}
+						} else {
+							manager.addTask(message);
+						}
+					}
+				}
+			});
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		clientPool.shutdown();
+		clientPool.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - begin;
+		if (report != null) {
+			int total = clients * tasks;
+			report.println(String.format("%-10s %8d tasks in %6d ms, %10.0f tasks/s, ids unique: %b",
+					serialized ? "serialized" : "lock-free", total, elapsed / 1000000, total / (elapsed / 1e9),
+					uniqueIds(messages, total)));
+		}
+	}
+
+	/**
+	 * Are the ids given to the tasks unique ?
+	 */
+	private static boolean uniqueIds(Message[][] messages, int total) {
+		BitSet ids = new BitSet(total);
+		for (Message[] submitted : messages) {
+			for (Message message : submitted) {
+				int id = ((Task) message.getArgs()[1]).getId();
+				if (id < 0 || ids.get(id)) {
+					return false;
+				}
+				ids.set(id);
+			}
+		}
+		return ids.cardinality() == total;
+	}
+}
@@ -0,0 +1,110 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of latencies (in milliseconds) in log-linear buckets, the way
+ * HdrHistogram keeps them: every power of two is split into SUB_BUCKETS
+ * buckets of equal width, so a latency is recorded with a relative error
+ * of at most 1/SUB_BUCKETS, whatever its magnitude. The histogram takes
+ * the same memory however many latencies it counts, and recording one
+ * is O(1). Latencies may be recorded from any number of threads at once;
+ * the counts read meanwhile may miss the latencies being recorded.
+ */
+public class LatencyHistogram {
+
+	/** Every power of two is split into 2^SUB_BUCKET_BITS buckets */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Latencies above this (about two years) are counted as this */
+	private static final long MAX_LATENCY = (1L << 36) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_LATENCY) + 1);
+
+	private final LongAdder totalCount = new LongAdder();
+
+	/**
+	 * Counts the latency.
+	 *
+	 * @param latency the latency in milliseconds, negative ones are
+	 * 		  counted as 0
+	 */
+	public void record(long latency) {
+		counts.incrementAndGet(index(Math.max(0, Math.min(MAX_LATENCY, latency))));
+		totalCount.increment();
+	}
+
+	/**
+	 * Adds the counts of the other histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+				totalCount.add(count);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all the latencies counted.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			totalCount.add(-counts.getAndSet(i, 0));
+		}
+	}
+
+	/**
+	 * @return the number of latencies counted
+	 */
+	public long getTotalCount() {
+		return totalCount.sum();
+	}
+
+	/**
+	 * The latency that the given percentage of the latencies counted are
+	 * within, rounded up to the upper bound of its bucket.
+	 *
+	 * @param percentile the percentage
+	 * @return the latency in milliseconds, -1 if no latency was counted
+	 */
+	public long getPercentile(double percentile) {
+		long total = totalCount.sum();
+		if (total == 0) {
+			return -1;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return MAX_LATENCY;
+	}
+
+	/**
+	 * The bucket of the latency: the latencies below SUB_BUCKETS have a
+	 * bucket each, the larger ones share a bucket with the latencies that
+	 * have the same SUB_BUCKET_BITS + 1 highest bits.
+	 */
+	private static int index(long latency) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(latency) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (latency >>> shift);
+	}
+
+	/**
+	 * @return the largest latency counted in the bucket
+	 */
+	private static long upperBound(int index) {
+		int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+		long sub = index - ((long) shift << SUB_BUCKET_BITS);
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,201 @@
+package Server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the active workers ordered by their load, so the load balancers
+ * find the least loaded worker without scanning all of them. The workers
+ * are kept in three indexed min-heaps, one per load measure:
+ *  - the number of assigned tasks (queueLengthLoadBalancer)
+ *  - the estimated CPU backlog (minCpuLoadQueueBalancer)
+ *  - the last reported CPU load (minCpuShareLoadBalancer)
+ * The least loaded worker is found in O(1), and a change of a worker's load
+ * is applied in O(log n). The index has to be told every time a worker's
+ * load changes (see update).
+ */
+public class LoadIndex {
+
+	/** Workers by the number of tasks assigned to them */
+	private final Heap taskCount = new Heap();
+
+	/** Workers by the estimated CPU share of the tasks assigned to them */
+	private final Heap cpuBacklog = new Heap();
+
+	/** Workers by their last reported CPU load */
+	private final Heap cpuLoad = new Heap();
+
+	/**
+	 * Adds the worker to the index (if it is not there yet).
+	 *
+	 * @param worker the worker that is online
+	 */
+	public synchronized void add(Account worker) {
+		taskCount.set(worker, worker.getAssignedTaskCount());
+		cpuBacklog.set(worker, worker.getCpuBacklog());
+		cpuLoad.set(worker, reportedCpuLoad(worker));
+	}
+
+	/**
+	 * Removes the worker from the index.
+	 *
+	 * @param worker the worker that is no longer online
+	 */
+	public synchronized void remove(Account worker) {
+		taskCount.remove(worker);
+		cpuBacklog.remove(worker);
+		cpuLoad.remove(worker);
+	}
+
+	/**
+	 * Re-positions the worker after its load has changed. Workers that are
+	 * not in the index are ignored.
+	 *
+	 * @param worker the worker whose load changed, may be null
+	 */
+	public synchronized void update(Account worker) {
+		if (worker == null || ! taskCount.contains(worker)) {
+			return;
+		}
+		add(worker);
+	}
+
+	/**
+	 * @return the worker with the fewest assigned tasks, null if no workers
+	 */
+	public synchronized Account leastAssignedTasks() {
+		return taskCount.peek();
+	}
+
+	/**
+	 * @return the worker with the lowest CPU backlog, null if no workers
+	 */
+	public synchronized Account leastCpuBacklog() {
+		return cpuBacklog.peek();
+	}
+
+	/**
+	 * @return the worker with the lowest reported CPU load, null if no workers
+	 */
+	public synchronized Account leastCpuLoad() {
+		return cpuLoad.peek();
+	}
+
+	/**
+	 * @return the number of workers in the index
+	 */
+	public synchronized int size() {
+		return taskCount.size;
+	}
+
+	private static double reportedCpuLoad(Account worker) {
+		return worker.getPerformance() == null ? 0 : worker.getPerformance().getCpuLoad();
+	}
+
+	/**
+	 * Binary min-heap of workers that knows the position of each worker, so
+	 * the key of any worker can be changed in O(log n).
+	 */
+	private static class Heap {
+
+		private Account[] workers = new Account[16];
+		private double[] keys = new double[16];
+		private int size = 0;
+
+		/** Position of each worker in the heap arrays */
+		private final Map<Account, Integer> positions = new HashMap<Account, Integer>();
+
+		boolean contains(Account worker) {
+			return positions.containsKey(worker);
+		}
+
+		Account peek() {
+			return size == 0 ? null : workers[0];
+		}
+
+		/**
+		 * Inserts the worker, or changes its key if it is in the heap already
+		 */
+		void set(Account worker, double key) {
+			Integer position = positions.get(worker);
+			if (position == null) {
+				if (size == workers.length) {
+					workers = Arrays.copyOf(workers, size * 2);
+					keys = Arrays.copyOf(keys, size * 2);
+				}
+				workers[size] = worker;
+				keys[size] = key;
+				positions.put(worker, size);
+				siftUp(size++);
+			} else {
+				double oldKey = keys[position];
+				keys[position] = key;
+				if (key < oldKey) {
+					siftUp(position);
+				} else if (key > oldKey) {
+					siftDown(position);
+				}
+			}
+		}
+
+		void remove(Account worker) {
+			Integer position = positions.remove(worker);
+			if (position == null) {
+				return;
+			}
+			size--;
+			if (position == size) {
+				workers[size] = null;
+				return;
+			}
+			workers[position] = workers[size];
+			keys[position] = keys[size];
+			workers[size] = null;
+			positions.put(workers[position], position);
+			siftDown(position);
+			siftUp(position);
+		}
+
+		private void siftUp(int position) {
+			while (position > 0) {
+				int parent = (position - 1) / 2;
+				if (keys[parent] <= keys[position]) {
+					return;
+				}
+				swap(position, parent);
+				position = parent;
+			}
+		}
+
+		private void siftDown(int position) {
+			while (true) {
+				int smallest = position;
+				int left = 2 * position + 1;
+				int right = left + 1;
+				if (left < size && keys[left] < keys[smallest]) {
+					smallest = left;
+				}
+				if (right < size && keys[right] < keys[smallest]) {
+					smallest = right;
+				}
+				if (smallest == position) {
+					return;
+				}
+				swap(position, smallest);
+				position = smallest;
+			}
+		}
+
+		private void swap(int i, int j) {
+			Account worker = workers[i];
+			double key = keys[i];
+			workers[i] = workers[j];
+			keys[i] = keys[j];
+			workers[j] = worker;
+			keys[j] = key;
+			positions.put(workers[i], i);
+			positions.put(workers[j], j);
+		}
+	}
+}
@@ -22,10 +22,15 @@ public class PubSub{
 		if(args.length == 0){
 			ps = new PubSubService(5);
 		}
-		else{
+		else if(args.length == 1){
 			//ps = PubSubService.load(args[0]);
 			ps = new PubSubService(Integer.parseInt(args[0]));
 		}
+		else{
+			//second parameter is the number of parallel delivery lanes
+			ps = new PubSubService(Integer.parseInt(args[0]),
+					Integer.parseInt(args[1]));
+		}
 		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
 		String fromUser;
 		while(true){
@@ -1,26 +1,36 @@
 package Server;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 
 import Common.Constants;
 import Common.Message;
+import Common.MessageChannel;
+import Common.SelectorGate;
+import Common.SocketMessageChannel;
+import Common.Task;
 
 
 /**
  * This class handles a single connection from a client to the server.
- * It accepts any messages sent by the client, and do appropriate updates
- * the the server(adds new event to the event queue, updates clients 
- * subscriptions, etc.) 
+ * The connection is persistent: it accepts any messages sent by the client
+ * until the client disconnects, and do appropriate updates the the 
+ * server(adds new event to the event queue, updates clients subscriptions,
+ * etc.). Once the client has announced itself (SYNC), the server uses the
+ * same connection to push messages to the client.
+ * The agent either runs its own receiving loop over a socket (run), or is
+ * fed messages by a selector-driven gate (messageReceived).
  */
-public class PubSubAgent implements Runnable{
+public class PubSubAgent implements Runnable, SelectorGate.ConnectionHandler{
 	
 	/** This object represent a socket that is used for communication with the 
 	 * client. */
 	private Socket _requestSocket;
 	
+	/** Framed connection on top of the socket */
+	private MessageChannel _channel;
+	
 	/** This object represents a client from server's prospective(location of
 	 * the client, the port used to communicate, etc.) */
 	private Account _account;
@@ -31,14 +41,6 @@ public class PubSubAgent implements Runnable{
 	/** The message received from the client*/
 	Message m;
     
-    /** This object represents an output stream used for communication with the
-     * client. */
-    private ObjectOutputStream oos;
-    
-    /** This object represents an input stream used for communication with the
-     * client. */
-    private ObjectInputStream ios;
-    
     /**
      * Instantiates a new pub sub agent. "manager" object is used to make any 
      * necessary updates to the server state. 
@@ -52,6 +54,18 @@ public class PubSubAgent implements Runnable{
         _manager = manager;
         _requestSocket = requestSocket;
     }
+    
+    /**
+     * Instantiates a new pub sub agent for a connection, served by a 
+     * selector-driven gate. Messages are passed to the agent by the gate.
+     *
+     * @param channel connection with the client
+     * @param manager the manager for this server
+     */
+    public PubSubAgent(MessageChannel channel, EventManager manager) {
+        _manager = manager;
+        _channel = channel;
+    }
 	
 	/**
 	 * Includes initial setup needed for all further communication with the
@@ -60,64 +74,107 @@ public class PubSubAgent implements Runnable{
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	private void setupConnection() throws IOException{
-	  //_requestSocket.getInetAddress();
-	  oos = new ObjectOutputStream(_requestSocket.getOutputStream());
-	  ios = new ObjectInputStream(_requestSocket.getInputStream());
+	  _channel = new SocketMessageChannel(_requestSocket);
 	}
 	
-	/** This method calls "handshake" procedure, accepts the type of event that
-	 * the client wants to send, and then accepts the actual and processes it 
-	 * in the appropriate way. */
+	/** This method accepts the messages from the client one by one and
+	 * processes each of them in the appropriate way, until the client
+	 * disconnects. */
 	@Override
 	public void run() {
 		//System.out.println("starting run() in PubSubAgent");
 		try{
 			this.setupConnection();
-			m = (Message) ios.readObject();
-			//System.out.println("Received command: " + m.getCommand());
-			//process the event differently based on the type of event
-			switch(m.getCommand()){
-				case SYNC:
-					this.sync(m);
-					break;
-				case NEW_TASK:
-					publishTask(m);
-					break;
-				case RESULT:
-					publishResult(m);
-					break;
-				case STATS:
-					publishStats(m);
-					break;
-				case SET_LOAD_LB:
-					setLoadBalncer(m);
-					break;
-				case ABORT:					
-					break;
-				case REMOVE_TASK:
-					break;
-			default:
-				System.err.println("Invalid command received:" + m.toString());
-				break;
+			SocketMessageChannel channel = (SocketMessageChannel) _channel;
+			while(channel.isOpen()){
+				handle(channel.receive());
 			}
+		} catch (EOFException e) {
+			//the client has closed the connection
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			if(_channel == null || _channel.isOpen()){
+				e.printStackTrace();
+			}
 		}
-		try {
-			_requestSocket.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if(_channel != null){
+			connectionClosed(_channel);
+		}
+		else{
+			try {
+				_requestSocket.close();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 		}
 	}
-	
+
+	/**
+	 * Message received over the connection served by a selector-driven gate
+	 */
+	@Override
+	public void messageReceived(MessageChannel channel, Message message) {
+		handle(message);
+	}
+
+	/**
+	 * The connection is over: the server can not push messages over it
+	 * any more
+	 */
+	@Override
+	public void connectionClosed(MessageChannel channel) {
+		if(_account != null){
+			_account.detachChannel(channel);
+		}
+		channel.close();
+	}
+
+	/**
+	 * Process a single message from the client
+	 * 
+	 * @param message received message
+	 */
+	private void handle(Message message) {
+		m = message;
+		//System.out.println("Received command: " + m.getCommand());
+		//process the event differently based on the type of event
+		switch(m.getCommand()){
+			case SYNC:
+				this.sync(m);
+				break;
+			case NEW_TASK:
+				publishTask(m);
+				break;
+			case NEW_TASK_BATCH:
+				publishTasks(m);
+				break;
+			case RESULT:
+			case RESULT_BATCH:
+				publishResult(m);
+				break;
+			case STATS:
+				publishStats(m);
+				break;
+			case SET_LOAD_LB:
+				setLoadBalncer(m);
+				break;
+			case ABORT:
+				publishAbort(m);
+				break;
+			case REMOVE_TASK:
+				publishRemovedTasks(m);
+				break;
+		default:
+			System.err.println("Invalid command received:" + m.toString());
+			break;
+		}
+	}
+
 	public void publishTask(Message message) {
 		//try {
-			_manager.addTask(message);
+			if(! _manager.addTask(message)){
+				refuseTasks(message, (Task)message.getArgs()[1]);
+			}
 			//message.getArgs()[1] = taskId;
 			//oos.writeObject(message);
 			//oos.flush();
@@ -126,6 +183,29 @@ public class PubSubAgent implements Runnable{
 			//e.printStackTrace();
 		//}
 	}
+	public void publishTasks(Message message) {
+		Task[] refused = _manager.addTasks(message);
+		if(refused.length > 0){
+			refuseTasks(message, refused);
+		}
+	}
+	/**
+	 * Tell the user that the server has refused its tasks (see 
+	 * EventManager.admit), so it sends them again later
+	 */
+	private void refuseTasks(Message message, Task... tasks){
+		int[] taskIds = new int[tasks.length];
+		for(int i = 0; i < tasks.length; i++){
+			taskIds[i] = tasks[i].getId();
+		}
+		try {
+			_channel.send(new Message(Constants.RequestType.BUSY, message.getArgs()[0],
+					taskIds, (long)Constants.BUSY_RETRY_AFTER));
+		} catch (IOException e) {
+			System.err.println("Failed to refuse " + tasks.length + " tasks of user " 
+					+ message.getArgs()[0]);
+		}
+	}
 	public void setLoadBalncer(Message message){
 		try{
 			int lb = (int)message.getArgs()[1];
@@ -142,10 +222,17 @@ public class PubSubAgent implements Runnable{
 	public void publishStats(Message message) {
 		_manager.addStats(message);
 	}
+	public void publishAbort(Message message) {
+		_manager.abortTask(message);
+	}
+	public void publishRemovedTasks(Message message) {
+		_manager.addRemovedTasks(message);
+	}
 
 	/**
 	 * Update client's (worker or user) information such as address, listenning
-	 * port, etc..
+	 * port, etc.. and bind this connection to the client, so the server can
+	 * push messages over it.
 	 */
 	public void sync(Message message){
 		try {
@@ -153,20 +240,24 @@ public class PubSubAgent implements Runnable{
 			int accountID = (int)m.getArgs()[0];
 			int portNumber = (int)m.getArgs()[1];
 			System.out.println("ID received:" + accountID);
-			Constants.ClientType accountType = 
+			Constants.ClientType accountType =
 					(Constants.ClientType) m.getArgs()[2];
-			_account = _manager.getAccount(accountID, 
-					_requestSocket.getInetAddress(), portNumber, accountType);
+			if(_account != null){
+				_account.detachChannel(_channel);
+			}
+			_account = _manager.getAccount(accountID,
+					_channel.getRemoteAddress(), portNumber, accountType);
+			_account.attachChannel(_channel);
 			System.out.println("Connection established with account ID " +
 				  _account.get_id() +".  location: " +
-					_requestSocket.getInetAddress() + " port: " + portNumber);
+					_channel.getRemoteAddress() + " port: " + portNumber);
+			Message response = new Message(Constants.RequestType.SYNC,
+					_account.get_id(), portNumber, accountType);
+			_channel.reply(m, response);
 			//time-decoupling:resend any pending events to the client that is online again
-			m.getArgs()[0] = _account.get_id();
-			oos.writeObject(m);
-			oos.flush();
 			_manager.sync(_account);
 			//System.out.println("Done syncing");
-		} 
+		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
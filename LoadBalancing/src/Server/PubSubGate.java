@@ -2,9 +2,15 @@ package Server;
 
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
 import Common.Constants;
+import Common.MessageChannel;
+import Common.SelectorGate;
+import Common.Threads;
 
 
 /**
@@ -12,8 +18,11 @@ import Common.Constants;
  * connect to. It runs in a separate thread from the main server's thread and 
  * accepts client's connections. For each such connection, a new thread with
  * PubSubAgent class is started to process client's request.
+ * In NIO mode (see Constants.IoMode) connections are served by a 
+ * selector-driven gate instead, and each PubSubAgent is just fed the 
+ * messages received over its connection.
  */
-public class PubSubGate implements Runnable{
+public class PubSubGate implements Runnable, SelectorGate.HandlerFactory{
 	
 	/** The back reference to the event manager of this server. it used to 
 	 * handle any information from the client (subscribe, publish, etc.)*/
@@ -30,10 +39,14 @@ public class PubSubGate implements Runnable{
 	}
 	
 	/** Wait for connection and spawn a new thread to process each such 
-	 * connection. 
+	 * connection. In VIRTUAL mode the threads are virtual threads.
 	 */
 	@Override
 	public void run() {
+		if(Constants.IoMode.current() == Constants.IoMode.NIO){
+			runSelector();
+			return;
+		}
 		try {
 			int portNum = Constants.SERVER_PORT;
 			ServerSocket serverSocket = new ServerSocket(portNum);
@@ -41,13 +54,36 @@ public class PubSubGate implements Runnable{
 					serverSocket.getLocalPort() + "...");
 			while(true) {
 		    	Socket requestSocket = serverSocket.accept();
-		        Thread serverThread = new Thread(new PubSubAgent(requestSocket, manager));
-		        serverThread.start();
+		        Threads.start(new PubSubAgent(requestSocket, manager), "PubSubAgent");
 		    }
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
+	
+	/** Accept connections with a selector-driven gate, served by a small 
+	 * fixed pool of threads. 
+	 */
+	private void runSelector() {
+		try {
+			int portNum = Constants.SERVER_PORT;
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(portNum));
+			System.out.println("Waiting for the clients to connect on port " +
+					serverChannel.socket().getLocalPort() + " (nio)...");
+			new SelectorGate(serverChannel, this).run();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/** Each accepted connection is handled by its own agent.
+	 */
+	@Override
+	public SelectorGate.ConnectionHandler connectionAccepted(MessageChannel channel) {
+		return new PubSubAgent(channel, manager);
+	}
 
 }
@@ -7,6 +7,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import Common.Constants;
+
 /**
  * This class implements the main thread of the server. It initiates and start
  * all the necessary threads for asynchronous communication with the clients
@@ -28,7 +30,15 @@ public class PubSubService implements Serializable{
 	 * structures) and listening service (for accepting incoming connections)  
 	 */
 	public PubSubService(int loadBalancingAlg){
-		em = new EventManager(loadBalancingAlg);
+		this(loadBalancingAlg, Constants.PUBLISHER_LANES);
+	}
+	
+	/**
+	 * Instantiates a new pub sub service that delivers messages to the 
+	 * clients with the given number of parallel lanes.
+	 */
+	public PubSubService(int loadBalancingAlg, int publisherLanes){
+		em = new EventManager(loadBalancingAlg, publisherLanes);
 		Thread incomingGate	= new Thread(new PubSubGate(em));
 		incomingGate.start();
 	}
@@ -0,0 +1,92 @@
+package Server;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import Common.Constants;
+import Common.Performance;
+import Common.Task;
+import Tasks.Timer;
+
+/**
+ * Measures the cost of the decisions of the RL balancer (load balancing
+ * algorithm 5): time and bytes allocated per dispatched task, and per
+ * dispatched and completed task (decision plus handing it over to the
+ * learner, which trains on its own thread). The bytes
+ * are counted by the JVM for the benchmark thread (see
+ * com.sun.management.ThreadMXBean), after a warm up long enough for the
+ * JIT to compile the decision path.
+ * Usage: QlearningBenchmark [workers] [decisions]
+ */
+public class QlearningBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int decisions = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (! threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("Allocated memory is not measured by this JVM.");
+			return;
+		}
+
+		Random random = new Random(42);
+		List<Account> workers = new ArrayList<Account>();
+		for (int i = 0; i < workerCount; i++) {
+			Account worker = new Account(i, InetAddress.getLoopbackAddress(), 20000 + i,
+					Constants.ClientType.WORKER);
+			Performance performance = new Performance();
+			performance.setCpuLoad(random.nextDouble());
+			performance.setUncompletedTaskCount(random.nextInt(10));
+			worker.setPerformance(performance);
+			workers.add(worker);
+		}
+		workers = Collections.unmodifiableList(workers);
+		//the tasks are built up front, they are not part of the decision
+		Task[] tasks = new Task[1024];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new Timer(1, 1);
+			tasks[i].setId(i);
+		}
+		System.out.println(workerCount + " workers, " + decisions + " decisions.");
+
+		QlearningLoadBalancer balancer = new QlearningLoadBalancer();
+		//warm up
+		run(balancer, workers, tasks, decisions, false);
+		run(balancer, workers, tasks, decisions, true);
+		report("dispatch", threads, balancer, workers, tasks, decisions, false);
+		report("dispatch + update", threads, balancer, workers, tasks, decisions, true);
+	}
+
+	private static void report(String name, com.sun.management.ThreadMXBean threads,
+			QlearningLoadBalancer balancer, List<Account> workers, Task[] tasks,
+			int decisions, boolean update) {
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		run(balancer, workers, tasks, decisions, update);
+		long elapsed = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		System.out.println(String.format("%-18s %8.1f ns/decision, %8.3f bytes/decision",
+				name, (double) elapsed / decisions, (double) allocated / decisions));
+	}
+
+	/**
+	 * Dispatch the given number of tasks, completing each task right away
+	 * if update is set (otherwise the decisions are replaced, as the task
+	 * ids repeat)
+	 */
+	private static void run(QlearningLoadBalancer balancer, List<Account> workers,
+			Task[] tasks, int decisions, boolean update) {
+		for (int i = 0; i < decisions; i++) {
+			balancer.disPtch(workers, tasks[i & (tasks.length - 1)]);
+			if (update) {
+				balancer.update(workers, i & (tasks.length - 1), 50);
+			}
+		}
+	}
+}
@@ -1,96 +1,124 @@
 package Server;
 
-import Common.Message;
+import Common.Constants;
 import Common.Task;
-import Server.RL.Action;
+import Server.RL.ItemTable;
+import Server.RL.Learner;
 import Server.RL.Policy;
 import Server.RL.State;
 import Server.RL.UpdatingItem;
+import Server.RL.Weights;
 
-import java.lang.reflect.Array;
 import java.util.*;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reinforcement learning balancer (load balancing algorithm 5): a linear
+ * Q-function of the workers' loads picks the worker of every task. When the
+ * task completes, the decision is handed over to a background learner (see
+ * Learner), which trains on it and publishes new versions of the weights.
+ * Dispatching reads the latest published version, so neither dispatching
+ * nor result delivery waits for training. The intermediate values are kept
+ * in primitive arrays reused from one call to the next, and the decisions
+ * are pooled, so dispatching a task does not allocate.
+ * The workers are passed as read-only snapshots (a new snapshot every time
+ * a worker joins or leaves). The weights belong to the workers by their
+ * ids: when the snapshot changes, the weights of the workers that stay are
+ * kept, the weights of the workers that left are dropped and the workers
+ * that joined start from the average of the existing weights.
+ */
 public class QlearningLoadBalancer {
 
 //    private Map<StateActionPair, Float> qValues = new HashMap<>();
 
-    private Map<Integer, UpdatingItem> updatingItemMap = new HashMap<>();
+    /**
+     * Decisions waiting for their tasks to complete
+     */
+    private final ItemTable updatingItemMap = new ItemTable();
+
+    /**
+     * Decisions not in use. Large enough to take back all the decisions the
+     * learner may hold (replay buffer and transitions not trained on yet)
+     */
+    private final BlockingQueue<UpdatingItem> itemPool =
+            new ArrayBlockingQueue<>(2 * Constants.RL_REPLAY_CAPACITY);
 
+    /**
+     * The latest version of the weights
+     */
+    private final AtomicReference<Weights> weights = new AtomicReference<>(Weights.EMPTY);
 
-    private Double[][] w = null;
+    private final Learner learner = new Learner(weights, itemPool);
+    private Thread learnerThread = null;
 
-    private double alpha = 0.2;
-    private double gamma = 0.2;
+    private final Random rand = new Random();
 
-    public int disPtch(List<Account> activeWorkers, Message message) {
-        Task task = (Task) message.getArgs()[1];
+    /* Scratch buffer */
+    private double[] qState = new double[0];
 
-        State state = new State(activeWorkers);
-        if (w == null) {
-            w = new Double[activeWorkers.size()][2 * state.cpuLoads.size()];
-            for (int i = 0; i < activeWorkers.size(); i++) {
-                w[i] = new Double[2 * state.cpuLoads.size()];
-                for (int j = 0; j < 2 * state.cpuLoads.size(); j++) {
-                    w[i][j] = 0.0;
-                }
-            }
+    public synchronized int disPtch(List<Account> activeWorkers, Task task) {
+        if (learnerThread == null) {
+            learnerThread = new Thread(learner, "RL learner");
+            learnerThread.setDaemon(true);
+            learnerThread.start();
+        }
+        Weights current = getWeights(activeWorkers);
+        if (qState.length < current.nbAction) {
+            qState = new double[current.nbAction];
+        }
+        UpdatingItem item = itemPool.poll();
+        if (item == null) {
+            item = new UpdatingItem();
         }
-        int action = Policy.getAction(w, state, activeWorkers.size());
+        State state = item.getState();
+        state.capture(activeWorkers);
+        int action = Policy.getAction(current.w, state, current.nbAction, qState, rand);
 
-        UpdatingItem item = new UpdatingItem();
-        item.setState(state);
         item.setAction(action);
-        updatingItemMap.put(task.getId(), item);
+        UpdatingItem replaced = updatingItemMap.put(task.getId(), item);
+        if (replaced != null) {
+            itemPool.offer(replaced);
+        }
 
         return action;
     }
 
-    public State update(List<Account> activeWorkers, TaskMetadata tm, TaskMetadata[] pendingTasks,State statePrime) {
-      //  State statePrime = new State(activeWorkers);
-        statePrime.setPendingTasks(pendingTasks);
-        UpdatingItem item = updatingItemMap.get(tm.getTask().getId());
-        item.setStatePrime(statePrime);// active workers after completing the task
-        item.setReward();
-
-        Double[] qStatePrime = Policy.getQ(w, item.getStatePrime(), activeWorkers.size());
-        Double[] qState = Policy.getQ(w, item.getState(), activeWorkers.size());
-        Double[] gradians = Policy.gradian(w, item.getState(), activeWorkers.size());
-        for (int i = 0; i < w[item.getAction()].length; i++) {
-            w[item.getAction()][i] += alpha * (item.getReward() + gamma * Collections.max(Arrays.asList(qStatePrime)) - qState[item.getAction()]) * gradians[i];
-        }
-
-        double sumW = 0;
-        for (int i = 0; i < w[item.getAction()].length; i++) {
-            sumW += w[item.getAction()][i];
+    /**
+     * Hands a completed task over to the learner. If the learner is too far
+     * behind, the task is not learned from.
+     *
+     * @param activeWorkers      the workers after completing the task
+     * @param taskId             id of the completed task (as dispatched)
+     * @param pendingWaitingTime total waiting time of the pending tasks
+     */
+    public synchronized void update(List<Account> activeWorkers, int taskId, double pendingWaitingTime) {
+        UpdatingItem item = updatingItemMap.remove(taskId);
+        if (item == null) {
+            //the task was not dispatched by this balancer
+            return;
         }
-        for (int i = 0; i < w[item.getAction()].length; i++) {
-            if (sumW != 0)
-                w[item.getAction()][i] /= sumW;
+        item.getStatePrime().capture(activeWorkers);
+        item.setReward(pendingWaitingTime);
+        if (! learner.offer(item)) {
+            itemPool.offer(item);
         }
-//        w[item.getAction()] = add(w[item.getAction()],
-//                multiply(alpha *
-//                                (item.getReward() +
-//                                        (gamma *)
-//                                        - Policy.getQ(w, item.getState(), activeWorkers.size())),
-//                        ));
-        // w <- w + alpha [ r + gamma * qStatePrime(s',a') - qStatePrime(s,a) ] qStatePrime'(s,a)
-
     }
 
-
-    private Double[] multiply(double n, Double[] arr) {
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = arr[i] * n;
+    /**
+     * @return the latest version of the weights, laid out for the given
+     *         snapshot of the workers
+     */
+    private Weights getWeights(List<Account> activeWorkers) {
+        Weights current = weights.get();
+        if (current.workers != activeWorkers) {
+            Weights laidOut = current.relayout(activeWorkers);
+            //if the learner has just published, its version is laid out
+            //again on the next dispatch
+            weights.compareAndSet(current, laidOut);
+            current = laidOut;
         }
-        return arr;
-
-    }
-
-    private Double[] add(Double[] arr, Double[] n) {
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = arr[i] + n[i];
-        }
-        return arr;
-
+        return current;
     }
 }
@@ -0,0 +1,87 @@
+package Server.RL;
+
+/**
+ * The decisions waiting for their tasks to complete, by task id. An open
+ * addressing hash table over primitive keys, so putting and removing a
+ * decision allocates nothing (the table only grows when it gets full).
+ */
+public class ItemTable {
+
+    private int[] keys = new int[64];
+    private UpdatingItem[] items = new UpdatingItem[64];
+    private int size = 0;
+
+    public UpdatingItem get(int taskId) {
+        int mask = keys.length - 1;
+        for (int i = hash(taskId) & mask; items[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == taskId)
+                return items[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return the decision that was replaced, or null
+     */
+    public UpdatingItem put(int taskId, UpdatingItem item) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int i = hash(taskId) & mask;
+        for (; items[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == taskId) {
+                UpdatingItem replaced = items[i];
+                items[i] = item;
+                return replaced;
+            }
+        }
+        keys[i] = taskId;
+        items[i] = item;
+        size++;
+        return null;
+    }
+
+    public UpdatingItem remove(int taskId) {
+        int mask = keys.length - 1;
+        int i = hash(taskId) & mask;
+        while (items[i] != null && keys[i] != taskId)
+            i = (i + 1) & mask;
+        UpdatingItem removed = items[i];
+        if (removed == null)
+            return null;
+        items[i] = null;
+        size--;
+        //move back the entries that would not be found past the gap
+        for (int j = (i + 1) & mask; items[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                items[i] = items[j];
+                items[j] = null;
+                i = j;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        UpdatingItem[] oldItems = items;
+        keys = new int[oldKeys.length * 2];
+        items = new UpdatingItem[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldItems[i] != null)
+                put(oldKeys[i], oldItems[i]);
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
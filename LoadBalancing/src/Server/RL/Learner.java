@@ -0,0 +1,197 @@
+package Server.RL;
+
+import Common.Constants;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Trains the RL balancer in the background. Completed decisions
+ * (transitions) are handed over through a bounded queue, so the thread
+ * delivering the results never waits for training. The learner keeps the
+ * last RL_REPLAY_CAPACITY transitions (experience replay) and, for every
+ * RL_BATCH_SIZE new ones, trains on a mini-batch sampled at random from
+ * them. The trained weights are then published as a new version (see
+ * Weights) for the dispatcher to pick up.
+ */
+public class Learner implements Runnable {
+
+    private double alpha = 0.2;
+    private double gamma = 0.2;
+
+    /**
+     * Transitions handed over and not trained on yet
+     */
+    private final BlockingQueue<UpdatingItem> transitions =
+            new ArrayBlockingQueue<>(Constants.RL_REPLAY_CAPACITY);
+
+    /**
+     * Where the transitions go once they are no longer needed
+     */
+    private final BlockingQueue<UpdatingItem> itemPool;
+
+    /**
+     * The latest version of the weights
+     */
+    private final AtomicReference<Weights> published;
+
+    /**
+     * The transitions trained on, the oldest replaced first
+     */
+    private final UpdatingItem[] replay = new UpdatingItem[Constants.RL_REPLAY_CAPACITY];
+    private int replayCount = 0;
+    private int replayNext = 0;
+
+    private final List<UpdatingItem> received = new ArrayList<>(Constants.RL_REPLAY_CAPACITY);
+
+    private final Random rand = new Random();
+
+    /* Scratch buffers */
+    private final State state = new State();
+    private final State statePrime = new State();
+    private double[] qState = new double[0];
+    private double[] qStatePrime = new double[0];
+    private double[] gradians = new double[0];
+
+    public Learner(AtomicReference<Weights> published, BlockingQueue<UpdatingItem> itemPool) {
+        this.published = published;
+        this.itemPool = itemPool;
+    }
+
+    /**
+     * Hands a completed decision over, without waiting.
+     *
+     * @return false if the learner is too far behind to take it
+     */
+    public boolean offer(UpdatingItem transition) {
+        return transitions.offer(transition);
+    }
+
+    @Override
+    public void run() {
+        int untrained = 0;
+        while (true) {
+            try {
+                received.add(transitions.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            transitions.drainTo(received);
+            for (UpdatingItem transition : received) {
+                remember(transition);
+            }
+            untrained += received.size();
+            received.clear();
+            if (untrained >= Constants.RL_BATCH_SIZE) {
+                train(untrained / Constants.RL_BATCH_SIZE);
+                untrained %= Constants.RL_BATCH_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Adds the transition to the replay buffer, returning the one it
+     * replaces to the pool
+     */
+    private void remember(UpdatingItem transition) {
+        UpdatingItem replaced = replay[replayNext];
+        replay[replayNext] = transition;
+        replayNext = (replayNext + 1) % replay.length;
+        if (replaced != null) {
+            itemPool.offer(replaced);
+        } else {
+            replayCount++;
+        }
+    }
+
+    /**
+     * Trains on the given number of mini-batches and publishes the result.
+     * Training works on a copy of the latest version, so the dispatcher is
+     * never blocked by it.
+     */
+    private void train(int batches) {
+        Weights base = published.get();
+        int n = base.nbAction;
+        if (n == 0) {
+            return;
+        }
+        if (qState.length < n) {
+            qState = new double[n];
+            qStatePrime = new double[n];
+            gradians = new double[2 * n];
+        }
+        double[] w = base.w.clone();
+        double[] delta = new double[w.length];
+        boolean[] touched = new boolean[n];
+        for (int b = 0; b < batches; b++) {
+            int size = Math.min(Constants.RL_BATCH_SIZE, replayCount);
+            for (int i = 0; i < size; i++) {
+                accumulate(base, w, replay[rand.nextInt(replayCount)], delta, touched);
+            }
+            for (int action = 0; action < n; action++) {
+                if (touched[action]) {
+                    apply(w, delta, action * 2 * n, 2 * n, size);
+                    touched[action] = false;
+                }
+            }
+        }
+        Weights trained = base.withValues(w);
+        while (! published.compareAndSet(base, trained)) {
+            //the workers have changed while training
+            base = published.get();
+            trained = trained.relayout(base.workers);
+        }
+    }
+
+    /**
+     * Adds the update of a single transition to delta
+     * w <- w + alpha [ r + gamma * max Q(s',a') - Q(s,a) ] Q'(s,a)
+     */
+    private void accumulate(Weights base, double[] w, UpdatingItem transition, double[] delta, boolean[] touched) {
+        int n = base.nbAction;
+        State s = transition.getState();
+        int action = transition.getAction();
+        if (s.workers != base.workers) {
+            action = base.actionOf(s.workers.get(action));
+            base.remap(s, state);
+            s = state;
+        }
+        if (action == -1) {
+            //the worker that executed the task has left
+            return;
+        }
+        State sPrime = transition.getStatePrime();
+        if (sPrime.workers != base.workers) {
+            base.remap(sPrime, statePrime);
+            sPrime = statePrime;
+        }
+        Policy.getQ(w, sPrime, n, qStatePrime);
+        Policy.getQ(w, s, n, qState);
+        Policy.gradian(s, n, gradians);
+        double error = transition.getReward() + gamma * Policy.max(qStatePrime, n) - qState[action];
+        int row = action * 2 * n;
+        for (int i = 0; i < 2 * n; i++) {
+            delta[row + i] += alpha * error * gradians[i];
+        }
+        touched[action] = true;
+    }
+
+    /**
+     * Applies the average update of the mini-batch to a row of weights
+     * and normalizes the row
+     */
+    private static void apply(double[] w, double[] delta, int row, int length, int batchSize) {
+        double sumW = 0;
+        for (int i = row; i < row + length; i++) {
+            w[i] += delta[i] / batchSize;
+            delta[i] = 0;
+            sumW += w[i];
+        }
+        for (int i = row; i < row + length; i++) {
+            if (sumW != 0)
+                w[i] /= sumW;
+        }
+    }
+}
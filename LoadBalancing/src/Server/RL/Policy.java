@@ -2,104 +2,93 @@ package Server.RL;
 
 import java.util.*;
 
+/**
+ * Linear Q-function over the state of the workers. The weights of all the
+ * actions are kept in one flat array, row a (the weights of action a)
+ * starting at a * 2n for n actions: n weights of the workers' cpu loads
+ * followed by n weights of their task counts. The results are written to
+ * arrays supplied by the caller, so no method allocates.
+ */
 public class Policy {
 
 
-    public static int getAction(Double[][] w, State state, int nbAction) {
+    /**
+     * Picks an action at random, the actions with higher values being more
+     * likely (softmax).
+     *
+     * @param q    scratch array of at least nbAction elements
+     * @param rand source of randomness
+     */
+    public static int getAction(double[] w, State state, int nbAction, double[] q, Random rand) {
 
-        double[] actionProb;
+        getQ(w, state, nbAction, q);
 
-        Double[] actionValues = getQ(w, state, nbAction);
+        softmax(q, nbAction);
 
-        actionProb = softmax(actionValues);
+        for (int i = 1; i < nbAction; i++)
+            q[i] += q[i - 1];
 
-        for (int i = 1; i < actionProb.length; i++)
-            actionProb[i] += actionProb[i - 1];
-
-        Random rand = new Random(new Date().getTime());
         float randFloat = rand.nextFloat();
 
-        for (int i = 0; i < actionProb.length; i++) {
-            if (randFloat < actionProb[i])
+        for (int i = 0; i < nbAction; i++) {
+            if (randFloat < q[i])
                 return i;
         }
 
-        return rand.nextInt(actionProb.length);
+        return rand.nextInt(nbAction);
     }
 
-    public static Double[] getQ(Double[][] w, State state, int nbAction) {
-        Double[] actionValues = new Double[nbAction];
+    /**
+     * Values of all the actions in the state, written to actionValues.
+     * Workers the state does not know of contribute nothing.
+     */
+    public static void getQ(double[] w, State state, int nbAction, double[] actionValues) {
+        int workers = Math.min(nbAction, state.size);
         for (int i = 0; i < nbAction; i++) {
-            Double[] weight = w[i];
+            int row = i * 2 * nbAction;
             double sum = 0;
-
-            for (int j = 0; j < weight.length; j++) {
-                if (j < weight.length / 2) {
-
-                    sum += weight[j] * state.cpuLoads.get(j);
-                } else {
-
-                    sum += weight[j] * state.taskCounts.get(j / 2);
-                }
+            for (int j = 0; j < workers; j++) {
+                sum += w[row + j] * state.cpuLoads[j];
+                sum += w[row + nbAction + j] * state.taskCounts[j];
             }
             actionValues[i] = sum;
         }
-        return actionValues;
-//        double max=0.0;
-//
-//                for(int i=0;i<actionValues.length;i++){
-//                if (max<actionValues[i]){
-//                    max=actionValues[i];
-//                    k=i;
-//                }
-//                }
-//        return max ;
     }
 
+    /**
+     * Gradient of the value of an action with respect to the weights of the
+     * action: the features of the state, in the layout of a weights row.
+     */
+    public static void gradian(State state, int nbAction, double[] gradian) {
+        int workers = Math.min(nbAction, state.size);
+        Arrays.fill(gradian, 0, 2 * nbAction, 0.0);
+        System.arraycopy(state.cpuLoads, 0, gradian, 0, workers);
+        System.arraycopy(state.taskCounts, 0, gradian, nbAction, workers);
+    }
 
-    public static Double[] gradian(Double[][] w, State state, int nbAction) {
-        Double gradian[];
-        gradian = new Double[2 * state.cpuLoads.size()];
-        Double[] actionValues;
-        double[] actionProb;
-        int maxActionIndex = 0;
-        actionValues = getQ(w, state, nbAction);
-        double max = 0.0;
-        for (int i = 0; i < actionValues.length; i++) {
-            if (max < actionValues[i]) {
-                max = actionValues[i];
-                maxActionIndex = i;
-            }
+    public static double max(double[] values, int length) {
+        double max = values[0];
+        for (int i = 1; i < length; i++) {
+            if (max < values[i])
+                max = values[i];
         }
-        for (int i = 0; i < w[maxActionIndex].length; i++) {
-            if (i < w[maxActionIndex].length / 2) {
-                gradian[i] = state.cpuLoads.get(i);
-            } else {
-                gradian[i] = Double.valueOf(state.taskCounts.get(i / 2));
-            }
-        }
-        return gradian;
+        return max;
     }
 
-    private static double[] softmax(Double[] actionValues) {
-        double[] actionProb = new double[actionValues.length];
+    /**
+     * Replaces the values by their softmax probabilities
+     */
+    private static void softmax(double[] actionValues, int length) {
         double sum = 0.0;
-        for (int i = 0; i < actionValues.length; i++)
-            sum += Math.exp(actionValues[i] / 10);
+        for (int i = 0; i < length; i++) {
+            actionValues[i] = Math.exp(actionValues[i] / 10);
+            sum += actionValues[i];
+        }
 
         if (sum == 0)
             sum = 1;
-        for (int i = 0; i < actionValues.length; i++)
-            actionProb[i] = Math.exp(actionValues[i] / 10) / sum;
-
-
-//        for (int i = 0; i < actionProb.length; i++) {
-//            if (sum == 0)
-//                sum = 1;
-//            actionProb[i] = actionValues[i] / sum;
-//        }
-
-        return actionProb;
+        for (int i = 0; i < length; i++)
+            actionValues[i] /= sum;
     }
 
 }
@@ -1,41 +1,65 @@
 package Server.RL;
 
+import Common.Performance;
 import Server.Account;
-import Server.TaskMetadata;
 
-import java.lang.reflect.Array;
 import java.util.*;
 
+/**
+ * The load of the active workers, as seen by the RL balancer: the last
+ * reported cpu load and number of uncompleted tasks of each worker, in the
+ * order of the given list of workers (the server passes them sorted by id).
+ * The list has to be a snapshot that never changes; the state keeps it to
+ * tell which worker each load belongs to. The loads are kept in primitive
+ * arrays, so a state can be captured again and again without allocating.
+ */
 public class State {
 
-    public List<Double> cpuLoads = new ArrayList<>();
-    public List<Integer> taskCounts = new ArrayList<>();
-    public List<Long> waitingTimes=new ArrayList<>();
-    public TaskMetadata[] pendingTasks;
-    public List<Account> activeWorkers;
-    public State(List<Account> activeWorkers) {
-        activeWorkers.sort(new Comparator<Account>() {
-            @Override
-            public int compare(Account o1, Account o2) {
-                return new Integer(o1.get_id()).compareTo(o2.get_id());
-            }
-        });
-
-        for (Account account : activeWorkers) {
-            double cpuLoad = account.getPerformance().getCpuLoad();
-            int uncompletedTaskCount = account.getPerformance().getUncompletedTaskCount();
-            cpuLoads.add(cpuLoad);
-            taskCounts.add(uncompletedTaskCount);
-        }
-        this.activeWorkers=activeWorkers;
+    public double[] cpuLoads;
+    public double[] taskCounts;
+
+    /**
+     * The snapshot of the workers the loads were captured from
+     */
+    public List<Account> workers = Collections.emptyList();
 
+    /**
+     * Number of workers captured in the arrays
+     */
+    public int size;
 
+    public State() {
+        this(0);
     }
-    public Object[] getPendingTasks() {
-        return pendingTasks;
+
+    public State(List<Account> activeWorkers) {
+        this(activeWorkers.size());
+        capture(activeWorkers);
     }
 
-    public void setPendingTasks(TaskMetadata pendingTasks[]) {
-        this.pendingTasks = pendingTasks;
+    private State(int capacity) {
+        cpuLoads = new double[capacity];
+        taskCounts = new double[capacity];
+    }
+
+    /**
+     * Captures the current load of the workers, replacing whatever the
+     * state held before. The arrays only grow when there are more workers
+     * than ever captured before.
+     */
+    public void capture(List<Account> activeWorkers) {
+        int n = activeWorkers.size();
+        if (cpuLoads.length < n) {
+            cpuLoads = new double[n];
+            taskCounts = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            Performance performance = activeWorkers.get(i).getPerformance();
+            //a worker that has not reported yet is considered idle
+            cpuLoads[i] = performance == null ? 0 : performance.getCpuLoad();
+            taskCounts[i] = performance == null ? 0 : performance.getUncompletedTaskCount();
+        }
+        size = n;
+        workers = activeWorkers;
     }
 }
@@ -1,9 +1,16 @@
 package Server.RL;
 
+/**
+ * A decision of the RL balancer: the state the task was dispatched in and
+ * the chosen action (index of the worker). Once the task completes, the
+ * state after it and the reward complete the transition the learner trains
+ * on. Items are pooled by the balancer, so the states are reused from one
+ * decision to the next.
+ */
 public class UpdatingItem {
-    private State state;
+    private final State state = new State();
     private int action;
-    private State statePrime;
+    private final State statePrime = new State();
 
     private double reward;
 
@@ -11,10 +18,6 @@ public class UpdatingItem {
         return state;
     }
 
-    public void setState(State state) {
-        this.state = state;
-    }
-
     public int getAction() {
         return action;
     }
@@ -27,20 +30,16 @@ public class UpdatingItem {
         return statePrime;
     }
 
-    public void setStatePrime(State statePrime) {
-        this.statePrime = statePrime;
-    }
-
     public double getReward() {
         return reward;
     }
 
-    public void setReward() {
-        double sum=0;
-        for(int i=0;i<statePrime.pendingTasks.length;i++){
-            sum +=statePrime.pendingTasks[i].waitingTime();
-        }
-        this.reward = -sum;
+    /**
+     * @param pendingWaitingTime total waiting time of the pending tasks after
+     *                           the task completed
+     */
+    public void setReward(double pendingWaitingTime) {
+        this.reward = -pendingWaitingTime;
     }
 
     //aya reward jame pendingtime has ya manfish ya ekhtelafesh ba state e qabli.. explain???????
@@ -0,0 +1,146 @@
+package Server.RL;
+
+import Server.Account;
+
+import java.util.*;
+
+/**
+ * A published version of the weights of the RL balancer, laid out for a
+ * snapshot of the workers (a worker's position in the snapshot being its
+ * action, see Policy for the layout of the rows). Never changed once
+ * published: the learner publishes new versions as it trains, and the
+ * dispatcher reads the latest one without locking.
+ */
+public class Weights {
+
+    public static final Weights EMPTY = new Weights(new double[0], Collections.<Account>emptyList());
+
+    public final double[] w;
+    public final int nbAction;
+
+    /**
+     * The snapshot of the workers the weights are laid out for
+     */
+    public final List<Account> workers;
+
+    /**
+     * Position of each worker in the snapshot, by worker id
+     */
+    private final Map<Integer, Integer> actionById;
+
+    public Weights(double[] w, List<Account> workers) {
+        this.w = w;
+        this.nbAction = workers.size();
+        this.workers = workers;
+        actionById = new HashMap<>();
+        for (int i = 0; i < nbAction; i++) {
+            actionById.put(workers.get(i).get_id(), i);
+        }
+    }
+
+    private Weights(double[] w, Weights layout) {
+        this.w = w;
+        this.nbAction = layout.nbAction;
+        this.workers = layout.workers;
+        this.actionById = layout.actionById;
+    }
+
+    /**
+     * @return new weights of the same layout
+     */
+    public Weights withValues(double[] values) {
+        return new Weights(values, this);
+    }
+
+    /**
+     * @return the action of the worker, -1 if the worker is not in the
+     *         snapshot the weights are laid out for
+     */
+    public int actionOf(Account worker) {
+        Integer action = actionById.get(worker.get_id());
+        return action == null ? -1 : action;
+    }
+
+    /**
+     * Lays out the weights for another snapshot of the workers. The weights
+     * of the workers present in both are kept. A worker that joined gets, as
+     * its row, the average of the rows of the other workers, and as the
+     * weights of its load in the other rows, the average of the weights of
+     * the other workers' loads.
+     */
+    public Weights relayout(List<Account> activeWorkers) {
+        int n = activeWorkers.size();
+        int[] previous = new int[n];
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            previous[i] = actionOf(activeWorkers.get(i));
+            if (previous[i] != -1) {
+                kept++;
+            }
+        }
+        int oldN = nbAction;
+        double[] resized = new double[n * 2 * n];
+        for (int a = 0; a < n; a++) {
+            if (previous[a] == -1) {
+                continue;
+            }
+            int row = a * 2 * n;
+            int oldRow = previous[a] * 2 * oldN;
+            double cpuSum = 0;
+            double countSum = 0;
+            for (int j = 0; j < n; j++) {
+                if (previous[j] != -1) {
+                    resized[row + j] = w[oldRow + previous[j]];
+                    resized[row + n + j] = w[oldRow + oldN + previous[j]];
+                    cpuSum += resized[row + j];
+                    countSum += resized[row + n + j];
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                if (previous[j] == -1) {
+                    resized[row + j] = cpuSum / kept;
+                    resized[row + n + j] = countSum / kept;
+                }
+            }
+        }
+        if (kept > 0) {
+            for (int a = 0; a < n; a++) {
+                if (previous[a] != -1) {
+                    continue;
+                }
+                int row = a * 2 * n;
+                for (int b = 0; b < n; b++) {
+                    if (previous[b] == -1) {
+                        continue;
+                    }
+                    for (int i = 0; i < 2 * n; i++) {
+                        resized[row + i] += resized[b * 2 * n + i] / kept;
+                    }
+                }
+            }
+        }
+        return new Weights(resized, activeWorkers);
+    }
+
+    /**
+     * Lays out a state captured from another snapshot of the workers the
+     * way the weights are laid out. Workers that are not in the snapshot of
+     * the weights are dropped, workers missing in the state are considered
+     * idle.
+     *
+     * @param state    the state to lay out
+     * @param remapped receives the laid out state
+     */
+    public void remap(State state, State remapped) {
+        remapped.capture(workers);
+        Arrays.fill(remapped.cpuLoads, 0, nbAction, 0.0);
+        Arrays.fill(remapped.taskCounts, 0, nbAction, 0.0);
+        for (int i = 0; i < state.size; i++) {
+            int action = actionOf(state.workers.get(i));
+            if (action != -1) {
+                remapped.cpuLoads[action] = state.cpuLoads[i];
+                remapped.taskCounts[action] = state.taskCounts[i];
+            }
+        }
+    }
+}
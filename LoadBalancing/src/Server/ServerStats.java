@@ -1,46 +1,176 @@
 package Server;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import Common.Constants;
+import Common.Task;
 /*This class represents a log of the server containing the various information
  * about the tasks processed by the server. This information should aid the 
- * load balancers.  
+ * load balancers. The tasks themselves are not kept (apart from the latest
+ * RECENT_TASKS), only aggregates: totals since the stats were reset, and the
+ * completion times of the last STATS_WINDOW per task type and per worker.
+ * The memory used does not grow with the number of tasks processed.
+ * The stats are updated and read without locks: the aggregates are kept in
+ * concurrent maps of LongAdder/DoubleAdder accumulators, so any number of
+ * threads may log tasks while the load balancers read the averages. Figures
+ * read while tasks are being logged may not include the tasks in progress.
  * */
 public class ServerStats {
-	long startTime;
-	long endTime;
-	/** The tasks that have been completed 
-	 * Key - task id (as assigned by the server)
-	 * Value - metadata associated with the task*/
-	private Map<Integer, TaskMetadata> completedTasks;
+	volatile long startTime;
+	volatile long endTime;
+	/** Number of tasks completed */
+	private volatile LongAdder completedCount;
+	/** Total completion time (from the assignment to the result) of the 
+	 * completed tasks, in seconds */
+	private volatile DoubleAdder totalExecutionTime;
+	/** The latest completed tasks, the oldest one replaced first */
+	private volatile AtomicReferenceArray<TaskMetadata> recentTasks;
+	/** Number of tasks put into recentTasks */
+	private volatile AtomicLong recentNext;
+	/** Completion times of the last STATS_WINDOW */
+	private volatile StatsWindow window;
+	/** Completion times of the last STATS_WINDOW per task type
+	 * Key - task class UID */
+	private volatile Map<Long, StatsWindow> taskTypeWindows;
+	/** Completion times of the last STATS_WINDOW per worker
+	 * Key - worker id */
+	private volatile Map<Integer, StatsWindow> workerWindows;
 	/** The task types that have been previously submitted 
 	 * Key - task class UID
 	 * Value - average CPU load*/
-	private Map<Long, TaskTypeCpuShare> taskTypeCpuShares;
+	private volatile Map<Long, TaskTypeCpuShare> taskTypeCpuShares;
+	/** Execution times reported for the task types
+	 * Key - task class UID
+	 * Value - number of tasks and their total execution time*/
+	private volatile Map<Long, TaskTypeServiceTime> taskTypeServiceTimes;
+	/** Execution times reported for all the tasks */
+	private volatile TaskTypeServiceTime allServiceTimes;
+	/** The latest completion times (from the assignment of the task to the
+	 * result, as seen by the server) of the task classes, per size class 
+	 * (see Task.getCostBucket). The class UIDs are not used, several 
+	 * classes share one
+	 * Key - task class, then size class
+	 * Value - the last SPECULATION_HISTORY completion times*/
+	private volatile Map<Class<?>, Map<Integer, TaskTypeHistory>> taskTypeCompletionTimes;
+	/** Number of completed tasks that had a deadline */
+	private volatile LongAdder tasksWithDeadline;
+	/** Number of tasks completed after their deadline (from the submission
+	 * to the result, as seen by the server) */
+	private volatile LongAdder deadlineMisses;
+	/** Recent cost of the task classes, per size class */
+	private volatile CostModel costModel;
 	public ServerStats(){
+		resetStats();
+	}
+	/**
+	 * Start over. Tasks logged while the stats are being reset may be
+	 * counted in the old stats only
+	 */
+	public void resetStats(){
 		this.startTime = System.currentTimeMillis();
-		completedTasks = new HashMap<Integer, TaskMetadata>();
-		taskTypeCpuShares = new HashMap<Long, ServerStats.TaskTypeCpuShare>();
+		completedCount = new LongAdder();
+		totalExecutionTime = new DoubleAdder();
+		recentTasks = new AtomicReferenceArray<TaskMetadata>(Constants.RECENT_TASKS);
+		recentNext = new AtomicLong();
+		window = new StatsWindow();
+		taskTypeWindows = new ConcurrentHashMap<Long, ServerStats.StatsWindow>();
+		workerWindows = new ConcurrentHashMap<Integer, ServerStats.StatsWindow>();
+		taskTypeCpuShares = new ConcurrentHashMap<Long, ServerStats.TaskTypeCpuShare>();
+		taskTypeServiceTimes = new ConcurrentHashMap<Long, ServerStats.TaskTypeServiceTime>();
+		allServiceTimes = new TaskTypeServiceTime();
+		taskTypeCompletionTimes = new ConcurrentHashMap<Class<?>, Map<Integer, ServerStats.TaskTypeHistory>>();
+		tasksWithDeadline = new LongAdder();
+		deadlineMisses = new LongAdder();
+		costModel = new CostModel();
+	}
+	/**
+	 * @return the recent cost of the task classes, which the load balancers
+	 * 		   estimate the cost of the tasks with
+	 */
+	public CostModel getCostModel(){
+		return costModel;
 	}
 	public double getTaskTypesCpuShare(Long taskUID){
-		if(taskTypeCpuShares.get(taskUID) != null){
-		return 
-				taskTypeCpuShares.get(taskUID).totalCpuShare / 
-				taskTypeCpuShares.get(taskUID).totalCount;
-		}
-		return -1;
+		TaskTypeCpuShare t = taskTypeCpuShares.get(taskUID);
+		return t == null ? -1 : t.average();
 	}
-	public void resetStats(){
-		this.startTime = System.currentTimeMillis();
-		completedTasks = new HashMap<Integer, TaskMetadata>();
-		taskTypeCpuShares = new HashMap<Long, ServerStats.TaskTypeCpuShare>();
+	/**
+	 * Average execution time of the tasks of the type, as reported by the 
+	 * workers
+	 * @param taskUID the task class UID
+	 * @return the average time in milliseconds, -1 if no task of this type 
+	 * 		   has been reported
+	 */
+	public double getTaskTypeServiceTime(long taskUID){
+		TaskTypeServiceTime t = taskTypeServiceTimes.get(taskUID);
+		return t == null ? -1 : t.average();
+	}
+	/**
+	 * Average execution time of all the tasks, as reported by the workers
+	 * @return the average time in milliseconds, -1 if no task has been 
+	 * 		   reported
+	 */
+	public double getAverageServiceTime(){
+		return allServiceTimes.average();
+	}
+	/**
+	 * Completion time (from the assignment to the result) that the given
+	 * percentage of the latest tasks of the same class and size class as
+	 * the task completed within
+	 * @param task the task
+	 * @param percentile the percentage
+	 * @return the time in milliseconds, -1 if fewer than 
+	 * 		   SPECULATION_MIN_SAMPLES such tasks have completed
+	 */
+	public long getTaskTypeCompletionTimePercentile(Task task, int percentile){
+		Map<Integer, TaskTypeHistory> buckets = taskTypeCompletionTimes.get(task.getClass());
+		TaskTypeHistory h = buckets == null ? null : buckets.get(task.getCostBucket());
+		return h == null ? -1 : h.percentile(percentile);
 	}
 	public void logTask(TaskMetadata tm){
-		//save all information related to this task for the future use
-		completedTasks.put(tm.getTask().getId(), tm);
+		//keep the aggregates, the task itself is only kept among the recent ones
+		this.updateCompleted(tm);
 		//update the profile of this task's type
 		long taskUID = tm.getTask().getUID();
 		this.updateTaskTypeCpuShare(taskUID, tm.getCpuShare());
+		this.updateTaskTypeServiceTime(taskUID, tm.getServiceTime());
+		this.updateTaskTypeCompletionTime(tm.getTask(), tm.getExecutionTime());
+		this.updateDeadlineMisses(tm);
+		costModel.record(tm.getTask(), tm.getCpuShare(), tm.getServiceTime());
+	}
+	/**
+	 * Log a number of completed tasks at once
+	 * @param tms metadata of the completed tasks
+	 */
+	public void logTasks(Iterable<TaskMetadata> tms){
+		for(TaskMetadata tm: tms){
+			this.logTask(tm);
+		}
+	}
+	/**
+	 * @return number of tasks completed since the stats were reset
+	 */
+	public long getCompletedCount(){
+		return completedCount.sum();
+	}
+	/**
+	 * @return number of completed tasks that had a deadline
+	 */
+	public int getTasksWithDeadline(){
+		return tasksWithDeadline.intValue();
+	}
+	/**
+	 * @return number of tasks completed after their deadline
+	 */
+	public int getDeadlineMisses(){
+		return deadlineMisses.intValue();
 	}
 	/*public void startTimer(){
 		//reset start time when the first task received (we don't wan to include
@@ -49,20 +179,56 @@ public class ServerStats {
 					this.startTime = System.currentTimeMillis();
 				}
 	}*/
-	private synchronized void updateTaskTypeCpuShare(long taskUID, double cpuShare){
+	private void updateTaskTypeCpuShare(long taskUID, double cpuShare){
 		//end time is the time when the last task was received. when running 
 		//the tasks in bulk, we don't want to include idle time after all tasks
 		//are completed
 		endTime = System.currentTimeMillis();
-		if(taskTypeCpuShares.get(taskUID) != null){
-			taskTypeCpuShares.get(taskUID).totalCount += 1;
-			taskTypeCpuShares.get(taskUID).totalCpuShare += cpuShare;
+		taskTypeCpuShares.computeIfAbsent(taskUID, uid -> new TaskTypeCpuShare()).add(cpuShare);
+		//System.out.println("CPU Share updated for " + taskUID + ":" + this.getTaskTypesCpuShare(taskUID));		
+	}
+	private void updateTaskTypeServiceTime(long taskUID, long serviceTime){
+		if(serviceTime < 0){
+			//not reported by the worker
+			return;
+		}
+		taskTypeServiceTimes.computeIfAbsent(taskUID, uid -> new TaskTypeServiceTime()).add(serviceTime);
+		allServiceTimes.add(serviceTime);
+	}
+	private void updateCompleted(TaskMetadata tm){
+		completedCount.increment();
+		totalExecutionTime.add((tm.getEndTime() - tm.getStartTime()) / Math.pow(10, 3));
+		AtomicReferenceArray<TaskMetadata> recent = recentTasks;
+		recent.set((int) (recentNext.getAndIncrement() % recent.length()), tm);
+		long completionTime = tm.getExecutionTime();
+		if(completionTime < 0){
+			return;
 		}
-		else{
-			TaskTypeCpuShare t = new TaskTypeCpuShare(cpuShare);
-			taskTypeCpuShares.put(taskUID, t);
+		long now = System.currentTimeMillis();
+		window.add(now, completionTime);
+		taskTypeWindows.computeIfAbsent(tm.getTask().getUID(), uid -> new StatsWindow())
+				.add(now, completionTime);
+		if(tm.getExecutor() != null){
+			workerWindows.computeIfAbsent(tm.getExecutor().get_id(), id -> new StatsWindow())
+					.add(now, completionTime);
 		}
-		//System.out.println("CPU Share updated for " + taskUID + ":" + this.getTaskTypesCpuShare(taskUID));		
+	}
+	private void updateDeadlineMisses(TaskMetadata tm){
+		long deadline = tm.getTask().getDeadline();
+		if(deadline <= 0){
+			return;
+		}
+		tasksWithDeadline.increment();
+		if(tm.getEndTime() - tm.getPendTime() > deadline){
+			deadlineMisses.increment();
+		}
+	}
+	private void updateTaskTypeCompletionTime(Task task, long completionTime){
+		if(completionTime < 0){
+			return;
+		}
+		taskTypeCompletionTimes.computeIfAbsent(task.getClass(), c -> new ConcurrentHashMap<Integer, TaskTypeHistory>())
+				.computeIfAbsent(task.getCostBucket(), b -> new TaskTypeHistory()).add(completionTime);
 	}
 	/**
 	 * Calculates Throughput of this server i.e. average number of tasks 
@@ -70,7 +236,7 @@ public class ServerStats {
 	 * @return throughput of this server (per minute)
 	 */
 	public double getThroughput(){
-		double thp = completedTasks.entrySet().size() / 
+		double thp = completedCount.sum() /
 				((endTime - startTime)/(Math.pow(10, 3)*60));
 		return thp;
 	}
@@ -79,34 +245,49 @@ public class ServerStats {
 	 * @return average execution time for all tasks completed by this server
 	 */
 	public double getAverageExecutionTime(){
-		double aet = 0;
-		for(Map.Entry<Integer, TaskMetadata> entry: completedTasks.entrySet()){
-			aet += (entry.getValue().getEndTime() - entry.getValue().getStartTime()) / Math.pow(10, 3);
-		}
-		aet /= completedTasks.entrySet().size();
-		return aet;
+		return totalExecutionTime.sum() / completedCount.sum();
 	}
 	public String statsToString(){
-		return "Total Processed: " + completedTasks.entrySet().size() + 
+		long now = System.currentTimeMillis();
+		String res = "Total Processed: " + completedCount.sum() +
 				"\nThroughput: " + this.getThroughput() + 
-				"\nAvg. exec. time: " + this.getAverageExecutionTime(); 
+				"\nAvg. exec. time: " + this.getAverageExecutionTime() + 
+				"\nDeadline misses: " + this.getDeadlineMisses() + " of " + this.getTasksWithDeadline() + 
+				"\nLast " + Constants.STATS_WINDOW / 1000 + " s: " + window.toString(now);
+		for(Map.Entry<Integer, StatsWindow> entry: workerWindows.entrySet()){
+			res += "\nWorker " + entry.getKey() + ": " + entry.getValue().toString(now);
+		}
+		return res;
 	}
+	/**
+	 * Lists the latest RECENT_TASKS completed tasks, the oldest first
+	 */
 	public String tasksToString(){
+		AtomicReferenceArray<TaskMetadata> recent = recentTasks;
+		long next = recentNext.get();
 		String res = "";
 		int counter = 0;
-		for(Map.Entry<Integer, TaskMetadata> entry: completedTasks.entrySet()){
-			res += "Id:" + entry.getValue().getTask().toString().replace("\n", " ") + " execution time:" + 
-					(entry.getValue().getEndTime() - entry.getValue().getStartTime()) / Math.pow(10, 3) + "\n";
+		for(int i = 0; i < recent.length(); i++){
+			TaskMetadata tm = recent.get((int) ((next + i) % recent.length()));
+			if(tm == null){
+				continue;
+			}
+			res += "Id:" + tm.getTask().toString().replace("\n", " ") + " execution time:" + 
+					(tm.getEndTime() - tm.getStartTime()) / Math.pow(10, 3) + "\n";
 			counter++;
 		}
-		res += "Total found: " + counter + "\n";
+		res += "Total found: " + counter + " (latest of " + completedCount.sum() + ")\n";
 		return res;
 	}
 	public String taskTypesToString(){
+		long now = System.currentTimeMillis();
 		String res = "";
 		for(Map.Entry<Long, TaskTypeCpuShare> entry: taskTypeCpuShares.entrySet()){
-			res += "Id:" + entry.getKey() + " CPU load:" + this.getTaskTypesCpuShare(entry.getKey()) + "\n";
+			StatsWindow w = taskTypeWindows.get(entry.getKey());
+			res += "Id:" + entry.getKey() + " CPU load:" + this.getTaskTypesCpuShare(entry.getKey()) + 
+					(w == null ? "" : " last " + Constants.STATS_WINDOW / 1000 + " s: " + w.toString(now)) + "\n";
 		}
+		res += "Recent cost per task class and size:\n" + costModel.toString();
 		return res;
 	}
 	//represents task type-related metrics: number of task of a particual type
@@ -114,12 +295,103 @@ public class ServerStats {
 	//determined how cpu intensive a particular task is
 	class TaskTypeCpuShare{
 		//number of tasks of this type executed
-		int totalCount;
+		final LongAdder totalCount = new LongAdder();
 		//total cpu share (in %) used by all tasks
-		double totalCpuShare;
-		public TaskTypeCpuShare(double cpuShare){
-			totalCpuShare = cpuShare;
-			totalCount = 1;
+		final DoubleAdder totalCpuShare = new DoubleAdder();
+		void add(double cpuShare){
+			totalCpuShare.add(cpuShare);
+			totalCount.increment();
+		}
+		double average(){
+			long count = totalCount.sum();
+			return count == 0 ? -1 : totalCpuShare.sum() / count;
+		}
+	}
+	//represents the execution times reported for a task type: number of 
+	//tasks and their total execution time (in milliseconds)
+	class TaskTypeServiceTime{
+		final LongAdder totalCount = new LongAdder();
+		final DoubleAdder totalTime = new DoubleAdder();
+		void add(long serviceTime){
+			totalTime.add(serviceTime);
+			totalCount.increment();
+		}
+		double average(){
+			long count = totalCount.sum();
+			return count == 0 ? -1 : totalTime.sum() / count;
+		}
+	}
+	//represents the completion times (in milliseconds) of the last 
+	//STATS_WINDOW: each of the STATS_WINDOW_SLOTS slots counts the tasks 
+	//completed in its part of the window, and is reused once it is older
+	//than the window. The queries merge the slots, so their cost does not 
+	//depend on the number of tasks. The thread that moves a slot on to a
+	//new part of the window clears it, tasks logged into the slot by other
+	//threads at that very moment may be lost
+	class StatsWindow{
+		final long slotLength = Constants.STATS_WINDOW / Constants.STATS_WINDOW_SLOTS;
+		final AtomicLongArray slotEpochs = new AtomicLongArray(Constants.STATS_WINDOW_SLOTS);
+		final LongAdder[] totalTimes = new LongAdder[Constants.STATS_WINDOW_SLOTS];
+		final LatencyHistogram[] histograms = new LatencyHistogram[Constants.STATS_WINDOW_SLOTS];
+		StatsWindow(){
+			for(int i = 0; i < histograms.length; i++){
+				totalTimes[i] = new LongAdder();
+				histograms[i] = new LatencyHistogram();
+				slotEpochs.set(i, -1);
+			}
+		}
+		void add(long now, long completionTime){
+			long epoch = now / slotLength;
+			int slot = (int) (epoch % histograms.length);
+			long slotEpoch = slotEpochs.get(slot);
+			if(slotEpoch < epoch && slotEpochs.compareAndSet(slot, slotEpoch, epoch)){
+				totalTimes[slot].reset();
+				histograms[slot].reset();
+			}
+			totalTimes[slot].add(completionTime);
+			histograms[slot].record(completionTime);
+		}
+		String toString(long now){
+			long epoch = now / slotLength;
+			LatencyHistogram merged = new LatencyHistogram();
+			long totalTime = 0;
+			for(int i = 0; i < histograms.length; i++){
+				if(slotEpochs.get(i) > epoch - histograms.length){
+					merged.add(histograms[i]);
+					totalTime += totalTimes[i].sum();
+				}
+			}
+			long count = merged.getTotalCount();
+			if(count == 0){
+				return "no tasks";
+			}
+			return count + " tasks, mean " + String.format("%.1f", (double) totalTime / count) + 
+					" ms, p50 " + merged.getPercentile(50) + " ms, p95 " + merged.getPercentile(95) + 
+					" ms, p99 " + merged.getPercentile(99) + " ms";
+		}
+	}
+	//represents the latest completion times of a task size class (in 
+	//milliseconds), the oldest one replaced first. Only speculation reads
+	//it, rarely, so it is simply guarded by its own lock
+	class TaskTypeHistory{
+		long[] times = new long[Constants.SPECULATION_HISTORY];
+		int count;
+		int next;
+		synchronized void add(long time){
+			times[next] = time;
+			next = (next + 1) % times.length;
+			if(count < times.length){
+				count++;
+			}
+		}
+		synchronized long percentile(int percentile){
+			if(count < Constants.SPECULATION_MIN_SAMPLES){
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(times, count);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(percentile / 100.0 * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, rank))];
 		}
 	}
 }
@@ -0,0 +1,142 @@
+package Server;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Common.Constants;
+import Common.Task;
+import Tasks.DummyTask;
+import Tasks.PrimeCalculator;
+import Tasks.Timer;
+import Tasks.Timer2;
+
+/**
+ * Measures how fast completed tasks are logged into the server stats
+ * (ServerStats.logTask) by many threads at once, while another thread keeps
+ * reading the average CPU loads of the task types the way the load balancers
+ * do. The run marked "serialized" makes the same calls under the stats'
+ * monitor. The calls are those of the current stats, not of the stats
+ * before they were kept in adders, so the run only shows what the writers
+ * and the reader lose by waiting on each other. The number of tasks
+ * logged is checked against the number of tasks the stats count.
+ * Usage: StatsBenchmark [writers] [tasks per writer]
+ */
+public class StatsBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		System.out.println(writers + " writers, " + tasks + " tasks each, 1 reader.");
+		TaskMetadata[][] completed = completedTasks(writers, tasks);
+		//warm up
+		for (boolean serialized : new boolean[] { true, false }) {
+			run(completed, Math.max(1, tasks / 10), serialized, false);
+		}
+		for (boolean serialized : new boolean[] { true, false }) {
+			run(completed, tasks, serialized, true);
+		}
+	}
+
+	/**
+	 * Completed tasks of every writer, spread over the task types and as many
+	 * workers as writers
+	 */
+	private static TaskMetadata[][] completedTasks(int writers, int tasks) throws Exception {
+		TaskMetadata[][] completed = new TaskMetadata[writers][tasks];
+		Account owner = new Account(0, InetAddress.getLoopbackAddress(), 30000, Constants.ClientType.USER);
+		Task[] types = { new Timer(1, 1), new Timer2(1, 1), new PrimeCalculator(1, 100), new DummyTask() };
+		for (int i = 0; i < writers; i++) {
+			Account worker = new Account(i + 1, InetAddress.getLoopbackAddress(), 40000 + i,
+					Constants.ClientType.WORKER);
+			for (int j = 0; j < tasks; j++) {
+				TaskMetadata tm = new TaskMetadata(owner, null, types[j % types.length], j);
+				tm.setPendTime();
+				tm.setStartTime();
+				tm.setEndTime();
+				tm.setCpuShare(j % 100);
+				tm.setServiceTime(j % 1000);
+				tm.setExecutor(worker);
+				completed[i][j] = tm;
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * Log the tasks of every writer into new stats
+	 * @param completed - the completed tasks of each writer
+	 * @param tasks - number of tasks each writer logs
+	 * @param serialized - make the updates and reads one at a time ?
+	 * @param report - print the results ?
+	 */
+	private static void run(TaskMetadata[][] completed, final int tasks, final boolean serialized,
+			boolean report) throws Exception {
+		final ServerStats stats = new ServerStats();
+		final long taskUID = completed[0][0].getTask().getUID();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean done = new AtomicBoolean();
+		final long[] reads = new long[1];
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				long count = 0;
+				while (! done.get()) {
+					if (serialized) {
+						synchronized (stats) {
+							stats.getTaskTypesCpuShare(taskUID);
+						}
+					} else {
+						stats.getTaskTypesCpuShare(taskUID);
+					}
+					count++;
+				}
+				reads[0] = count;
+			}
+		});
+		reader.start();
+		ExecutorService writerPool = Executors.newFixedThreadPool(completed.length);
+		for (final TaskMetadata[] logged : completed) {
+			writerPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < tasks; j++) {
+						if (serialized) {
+							synchronized (stats) {
+								stats.logTask(logged[j]);
+							}
+						} else {
+							stats.logTask(logged[j]);
+						}
+					}
+				}
+			});
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		writerPool.shutdown();
+		writerPool.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - begin;
+		done.set(true);
+		reader.join();
+		if (report) {
+			int total = completed.length * tasks;
+			System.out.println(String.format("%-10s %9d tasks in %6d ms, %10.0f logs/s, %10.0f reads/s, all counted: %b",
+					serialized ? "serialized" : "lock-free", total, elapsed / 1000000, total / (elapsed / 1e9),
+					reads[0] / (elapsed / 1e9), stats.getCompletedCount() == total));
+		}
+	}
+}
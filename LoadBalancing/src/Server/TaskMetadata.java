@@ -11,6 +11,23 @@ public class TaskMetadata {
 	private long endTime;
 	double cpuShare;
 	private long pendTime;
+	/** CPU share the task was estimated to take when it was assigned to its
+	 * executor. The executor's backlog is released by the same amount */
+	private double estimatedCpuShare;
+	/** Time (in milliseconds) the task was estimated to take when it was 
+	 * assigned to its executor. Released from the executor's expected work
+	 * by the same amount */
+	private double expectedServiceTime;
+	/** Is the task counted in its executor's load ? */
+	private boolean assigned;
+	/** Worker running a backup copy of the task (see 
+	 * Constants.Speculation), null if none */
+	private Account backupExecutor;
+	/** Is the backup counted in its worker's load ? */
+	private boolean backupAssigned;
+	/** Time (in milliseconds) the execution took on the worker, as reported
+	 * by the worker. -1 if not reported */
+	private long serviceTime = -1;
 	public double getCpuShare() {
 		return cpuShare;
 	}
@@ -48,6 +65,9 @@ public class TaskMetadata {
 	public void setPendTime(){
 		pendTime=System.currentTimeMillis();
 	}
+	public long getPendTime(){
+		return pendTime;
+	}
 	public long getExecutionTime(){
 		if(startTime == -1 || endTime == -1){
 			return -1;
@@ -56,6 +76,12 @@ public class TaskMetadata {
 			return endTime - startTime; 
 		}
 	}
+	public long getServiceTime() {
+		return serviceTime;
+	}
+	public void setServiceTime(long serviceTime) {
+		this.serviceTime = serviceTime;
+	}
 	public Common.Task getTask() {
 		return task;
 	}
@@ -68,6 +94,76 @@ public class TaskMetadata {
 	public void setExecutor(Account executor) {
 		this.executor = executor;
 	}
+	/**
+	 * Assign the task to the worker, moving it from the load of the worker
+	 * it was assigned to before (if any) to the load of the new worker
+	 * @param executor the worker to execute the task
+	 * @param estimatedCpuShare estimated CPU share of the task
+	 * @param expectedServiceTime estimated execution time of the task
+	 */
+	public synchronized void assignTo(Account executor, double estimatedCpuShare, 
+			double expectedServiceTime) {
+		release();
+		this.executor = executor;
+		this.estimatedCpuShare = estimatedCpuShare;
+		this.expectedServiceTime = expectedServiceTime;
+		executor.assignTask(estimatedCpuShare, expectedServiceTime);
+		assigned = true;
+	}
+	/**
+	 * Run a backup copy of the task on another worker. The backup counts in
+	 * the load of that worker with the same estimates as the task
+	 * @param worker the worker to run the backup
+	 */
+	public synchronized void assignBackup(Account worker) {
+		this.backupExecutor = worker;
+		worker.assignTask(estimatedCpuShare, expectedServiceTime);
+		backupAssigned = true;
+	}
+	public Account getBackupExecutor() {
+		return backupExecutor;
+	}
+	/**
+	 * @return is the task assigned to the worker and counted in its load ?
+	 */
+	public synchronized boolean isAssignedTo(Account worker) {
+		return assigned && executor == worker;
+	}
+	/**
+	 * The backup copy could not be sent to its worker: it no longer counts
+	 * in that worker's load, and the task runs on its executor only
+	 */
+	public synchronized void dropBackup() {
+		if (backupAssigned) {
+			backupExecutor.releaseTask(estimatedCpuShare, expectedServiceTime);
+			backupAssigned = false;
+		}
+		backupExecutor = null;
+	}
+	/**
+	 * Take the task away from its executor (the task will be assigned again)
+	 */
+	public synchronized void unassign() {
+		release();
+		this.executor = null;
+	}
+	/**
+	 * The task is completed: it no longer counts in its executor's load. 
+	 * The executor is kept for the records
+	 */
+	public synchronized void complete() {
+		release();
+	}
+	private void release() {
+		if (assigned) {
+			executor.releaseTask(estimatedCpuShare, expectedServiceTime);
+			assigned = false;
+		}
+		if (backupAssigned) {
+			backupExecutor.releaseTask(estimatedCpuShare, expectedServiceTime);
+			backupAssigned = false;
+		}
+	}
 	public Account getInitiator() {
 		return initiator;
 	}
@@ -5,6 +5,8 @@ import Common.Constants;
 import Common.Task;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Random;
@@ -51,12 +53,31 @@ public class DummyTask extends Task {
             try {
                 Thread.sleep(timeout);
             } catch (InterruptedException e) {
+                //the task was aborted
+                return null;
             }
         }
         writer.write("0\nTimer done!");
         return seconds;
     }
 
+    /**
+     * Restore the task from its binary form (see Task.write)
+     * @param in - source of the task's binary form
+     * @throws IOException - if the source does not contain a valid task
+     */
+    public DummyTask(DataInput in) throws IOException {
+        super(in);
+        seconds = in.readInt();
+        frequency = in.readInt();
+    }
+
+    @Override
+    protected void writeParameters(DataOutput out) throws IOException {
+        out.writeInt(seconds);
+        out.writeInt(frequency);
+    }
+
     @Override
     public int getTaskType() {
         return 0;
@@ -66,4 +87,9 @@ public class DummyTask extends Task {
     public long getUID() {
         return serialVersionUID;
     }
+
+    @Override
+    public int getCostBucket() {
+        return sizeBucket(seconds);
+    }
 }
@@ -1,6 +1,8 @@
 package Tasks;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Random;
@@ -71,6 +73,9 @@ public class PasswordBruteforce extends Task {
 			} 
 		} else {
 			for (int i = 0; i < 36; i++) {
+				if (isCancelled()) {
+					break;
+				}
 				int charIndex = i;
 				if (charIndex < 10) {
 					charIndex += '0';
@@ -139,6 +144,21 @@ public class PasswordBruteforce extends Task {
 		return true;
 	}
 
+	/**
+	 * Restore the task from its binary form (see Task.write)
+	 * @param in - source of the task's binary form
+	 * @throws IOException - if the source does not contain a valid task
+	 */
+	public PasswordBruteforce(DataInput in) throws IOException {
+		super(in);
+		password = in.readUTF();
+	}
+
+	@Override
+	protected void writeParameters(DataOutput out) throws IOException {
+		out.writeUTF(password);
+	}
+
 	@Override
 	public int getTaskType() {
 		return 1;
@@ -148,4 +168,10 @@ public class PasswordBruteforce extends Task {
 	public long getUID(){
 		return serialVersionUID;
 	}
+
+	/** Every character more multiplies the options to check */
+	@Override
+	public int getCostBucket() {
+		return password == null ? 0 : password.length();
+	}
 }
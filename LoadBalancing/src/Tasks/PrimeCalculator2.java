@@ -1,6 +1,8 @@
 package Tasks;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -61,6 +63,9 @@ public class PrimeCalculator2 extends Task {
 	public Object runCoreLogic() {
 		Integer primeCount = 0;
 		for (long num = min; num < max + 1; num ++) {
+			if (isCancelled()) {
+				return null;
+			}
 			if (isPrime(num)) {
 				primeCount++;
 				//if (writer != null) {
@@ -127,6 +132,23 @@ public class PrimeCalculator2 extends Task {
 		return true;
 	}
 
+	/**
+	 * Restore the task from its binary form (see Task.write)
+	 * @param in - source of the task's binary form
+	 * @throws IOException - if the source does not contain a valid task
+	 */
+	public PrimeCalculator2(DataInput in) throws IOException {
+		super(in);
+		min = in.readLong();
+		max = in.readLong();
+	}
+
+	@Override
+	protected void writeParameters(DataOutput out) throws IOException {
+		out.writeLong(min);
+		out.writeLong(max);
+	}
+
 	@Override
 	public int getTaskType() {
 		return 4;
@@ -136,4 +158,9 @@ public class PrimeCalculator2 extends Task {
 	public long getUID(){
 		return serialVersionUID;
 	}
+
+	@Override
+	public int getCostBucket() {
+		return sizeBucket(max - min);
+	}
 }
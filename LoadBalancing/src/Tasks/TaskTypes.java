@@ -0,0 +1,68 @@
+package Tasks;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import Common.Task;
+
+/**
+ * Registry of the task types that have a binary form (see Task.write).
+ * Maps the value returned by Task.getTaskType() to the task class, and
+ * restores tasks of each type from their binary form.
+ * Tasks of other classes are sent using the Java serialization.
+ */
+public final class TaskTypes {
+
+	/** Task classes by their type */
+	private static final Class<?>[] TYPES = {
+		DummyTask.class,			// 0
+		PasswordBruteforce.class,	// 1
+		PasswordBruteforce2.class,	// 2
+		PrimeCalculator.class,		// 3
+		PrimeCalculator2.class,		// 4
+		Timer.class,				// 5
+		Timer2.class				// 6
+	};
+
+	private TaskTypes() {}
+
+	/**
+	 * Can the task be restored from its binary form ?
+	 * @param task - task to check
+	 * @return true, if the task's type is registered
+	 * 		   false, otherwise
+	 */
+	public static boolean isRegistered(Task task) {
+		int type = task.getTaskType();
+		return type >= 0 && type < TYPES.length && TYPES[type] == task.getClass();
+	}
+
+	/**
+	 * Restore a task from its binary form
+	 * @param type - type of the task
+	 * @param in - source of the task's binary form
+	 * @return restored task
+	 * @throws IOException - if the type is unknown or the source does not
+	 * 						 contain a valid task
+	 */
+	public static Task read(int type, DataInput in) throws IOException {
+		switch (type) {
+		case 0:
+			return new DummyTask(in);
+		case 1:
+			return new PasswordBruteforce(in);
+		case 2:
+			return new PasswordBruteforce2(in);
+		case 3:
+			return new PrimeCalculator(in);
+		case 4:
+			return new PrimeCalculator2(in);
+		case 5:
+			return new Timer(in);
+		case 6:
+			return new Timer2(in);
+		default:
+			throw new IOException("Unknown task type " + type);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package Tasks;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Random;
@@ -69,7 +71,10 @@ public class Timer extends Task {
 			writer.write(stamp/1000 + "\n");
 			try {
 				Thread.sleep(timeout);
-			} catch (InterruptedException e) {}
+			} catch (InterruptedException e) {
+				//the task was aborted
+				return null;
+			}
 		}
 		writer.write("0\nTimer done!");
 		return seconds;
@@ -103,6 +108,23 @@ public class Timer extends Task {
 		return true;
 	}
 
+	/**
+	 * Restore the task from its binary form (see Task.write)
+	 * @param in - source of the task's binary form
+	 * @throws IOException - if the source does not contain a valid task
+	 */
+	public Timer(DataInput in) throws IOException {
+		super(in);
+		seconds = in.readInt();
+		frequency = in.readInt();
+	}
+
+	@Override
+	protected void writeParameters(DataOutput out) throws IOException {
+		out.writeInt(seconds);
+		out.writeInt(frequency);
+	}
+
 	@Override
 	public int getTaskType() {
 		return 5;
@@ -111,5 +133,10 @@ public class Timer extends Task {
 	@Override
 	public long getUID(){
 		return serialVersionUID;
-	}	
+	}
+
+	@Override
+	public int getCostBucket() {
+		return sizeBucket(seconds);
+	}
 }
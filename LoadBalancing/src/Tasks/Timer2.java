@@ -1,6 +1,8 @@
 package Tasks;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Random;
@@ -76,6 +78,8 @@ public class Timer2 extends Task {
             try {
                 Thread.sleep(timeout);
             } catch (InterruptedException e) {
+                //the task was aborted
+                return null;
             }
         }
         writer.write("0\nTimer done!");
@@ -112,6 +116,23 @@ public class Timer2 extends Task {
         return true;
     }
 
+    /**
+     * Restore the task from its binary form (see Task.write)
+     * @param in - source of the task's binary form
+     * @throws IOException - if the source does not contain a valid task
+     */
+    public Timer2(DataInput in) throws IOException {
+        super(in);
+        seconds = in.readInt();
+        frequency = in.readInt();
+    }
+
+    @Override
+    protected void writeParameters(DataOutput out) throws IOException {
+        out.writeInt(seconds);
+        out.writeInt(frequency);
+    }
+
     @Override
     public int getTaskType() {
         return 6;
@@ -121,4 +142,9 @@ public class Timer2 extends Task {
     public long getUID() {
         return serialVersionUID;
     }
+
+    @Override
+    public int getCostBucket() {
+        return sizeBucket(seconds);
+    }
 }
@@ -1,14 +1,12 @@
 package Worker;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.Timer;
 
 import Common.Constants;
 import Common.Message;
+import Common.SocketMessageChannel;
 import Common.ExternalSocketCloser;
-import Common.Task;
 
 /**
  * This is a listening thread, which receives and
@@ -16,7 +14,7 @@ import Common.Task;
  * worker invoke corresponding methods
  * @author Sviatoslav Sivov
  */
-public class Connection extends Thread {
+public class Connection implements Runnable {
 
 	/** Socket for connection with the server */
 	private final Socket socket;
@@ -24,10 +22,8 @@ public class Connection extends Thread {
 	/** Governing worker object */
 	private final Worker worker;
 	
-	/** Read messages from this stream for communication with the server */
-	private ObjectInputStream oiStream;
-	
-	ObjectOutputStream ooStream;
+	/** Framed connection on top of the socket */
+	private SocketMessageChannel channel;
 	
 	/**
 	 * Create a new connection using given socket and a 'manager' worker
@@ -35,15 +31,13 @@ public class Connection extends Thread {
 	 * @param _worker - worker state object
 	 */
 	public Connection(Socket _socket, Worker _worker) {
-		super();
 		socket = _socket;
 		worker = _worker;
 		try {
-			oiStream = new ObjectInputStream(socket.getInputStream());
-			ooStream = new ObjectOutputStream(socket.getOutputStream());
+			channel = new SocketMessageChannel(socket);
 		} catch (IOException e) {
 			e.printStackTrace();
-			oiStream = null;
+			channel = null;
 		}
 	}
 	
@@ -51,19 +45,17 @@ public class Connection extends Thread {
 	 * Receive and interpret messages until connection is terminated
 	 */
 	public void run() {
-		if (oiStream == null) {
-			System.err.println("oiStream == null");
+		if (channel == null) {
+			System.err.println("channel == null");
 			return;
 		}
 		while (! socket.isClosed()) {
 			Message message = null;
 			try {
-				message = (Message) oiStream.readObject();
+				message = channel.receive();
 				interpretMessage(message);
-			} catch (ClassNotFoundException | IOException e) {
-				try {
-					socket.close();
-				} catch (IOException e1) {}
+			} catch (IOException e) {
+				channel.close();
 			}
 		}
 	}
@@ -79,9 +71,8 @@ public class Connection extends Thread {
 	private boolean receiveMessage() {
 		boolean communicationCompleted = false;
 		try {
-			//ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
 			Message handshakeResponse = new Message(Constants.RequestType.HANDSHAKE, worker.getId());
-			ooStream.writeObject(handshakeResponse);
+			channel.send(handshakeResponse);
 		} catch (IOException e) {
 			return false;
 		}
@@ -90,17 +81,15 @@ public class Connection extends Thread {
 			ExternalSocketCloser interrupter = new ExternalSocketCloser(socket);
 			while (! communicationCompleted) {
 				timer.schedule(interrupter, 3000);
-				Message serverMsg = (Message) oiStream.readObject();
+				Message serverMsg = channel.receive();
 				if (! serverMsg.getCommand().equals(Constants.RequestType.HANDSHAKE)) {
 					interpretMessage(serverMsg);
 					communicationCompleted = true;
-					socket.close();
+					channel.close();
 				}
 			}
 		} catch (IOException e) {
 			System.out.println("Socket read interrupted!");
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		} finally {
 			timer.cancel();
 		}
@@ -108,24 +97,18 @@ public class Connection extends Thread {
 	}
 
 	/**
-	 * Decides how to act based on the received message's command
+	 * Decides how to act based on the received message's command.
+	 * Everything except the handshake is handled the same way as the 
+	 * messages pushed over the persistent connection to the server
 	 * @param message - received message
 	 */
 	private void interpretMessage(Message message) {
 		switch (message.getCommand()) {
-		case SYNC:
-			int id = (Integer) message.getArgs()[0];
-			worker.assignId(id);
-			break;
 		case HANDSHAKE:
 			receiveMessage();
 			break;
-		case NEW_TASK:
-			Task task = (Task) message.getArgs()[1];
-			worker.newTask(task);
-			break;
 		default:
-			System.out.println("Unrecognized command received: " + message.getCommand());
+			worker.messageReceived(message);
 			break;
 		}
 	}
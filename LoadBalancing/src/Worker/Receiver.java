@@ -4,8 +4,16 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 
+import Common.Constants;
+import Common.Message;
+import Common.MessageChannel;
+import Common.SelectorGate;
+import Common.Threads;
+
 /**
- * Thread for accepting connections from the server
+ * Thread for accepting connections from the server.
+ * In NIO mode (see Constants.IoMode) the connections are served by a
+ * selector-driven gate instead of a thread per connection
  * @author Sviatoslav Sivov
  */
 public class Receiver extends Thread {
@@ -32,13 +40,16 @@ public class Receiver extends Thread {
 	/**
 	 * Accept server connetions and carry them out in a separate thread, until client terminates
 	 */
-	public void run() {	
+	public void run() {
+		if (Constants.IoMode.current() == Constants.IoMode.NIO && serverSocket.getChannel() != null) {
+			runSelector();
+			return;
+		}	
 		System.out.println("Connection receiver started.");
 		while (! serverSocket.isClosed()) {
 			try {
 				Socket connectionSocket = serverSocket.accept();
-				Connection newConnection = new Connection(connectionSocket, worker);
-				newConnection.start();
+				Threads.start(new Connection(connectionSocket, worker), "Connection");
 			} catch (IOException e) {
 				System.out.println("Server socket was closed. Terminating Receiver.");
 				return;
@@ -46,4 +57,50 @@ public class Receiver extends Thread {
 		}
 		System.out.println("Connection receiver finished!");
 	}
+	
+	/**
+	 * Serve server connections with a selector-driven gate, until 
+	 * worker terminates
+	 */
+	private void runSelector() {
+		try {
+			new SelectorGate(serverSocket.getChannel(), new SelectorGate.HandlerFactory() {
+				@Override
+				public SelectorGate.ConnectionHandler connectionAccepted(MessageChannel channel) {
+					return new ServerConnectionHandler();
+				}
+			}).run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.println("Server socket was closed. Terminating Receiver.");
+	}
+	
+	/**
+	 * Handles a single connection from the server: responds to the handshake
+	 * and interprets the message that follows it, same as Connection does
+	 */
+	private class ServerConnectionHandler implements SelectorGate.ConnectionHandler {
+
+		@Override
+		public void messageReceived(MessageChannel channel, Message message) {
+			switch (message.getCommand()) {
+			case HANDSHAKE:
+				try {
+					channel.send(new Message(Constants.RequestType.HANDSHAKE, worker.getId()));
+				} catch (IOException e) {
+					channel.close();
+				}
+				break;
+			default:
+				worker.messageReceived(message);
+				channel.close();
+				break;
+			}
+		}
+
+		@Override
+		public void connectionClosed(MessageChannel channel) {
+		}
+	}
 }
@@ -1,12 +1,17 @@
 package Worker;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import Common.Constants;
 import Common.Task;
 
-public class ResultSender extends Thread {
+public class ResultSender implements Runnable {
 
 	public boolean terminated = false;
 	
@@ -18,26 +23,92 @@ public class ResultSender extends Thread {
 		results = worker.getResultsQueue();
 	}
 	
+	/**
+	 * Send the results of completed tasks. Once a task completes, its result
+	 * is held for up to RESULT_LINGER milliseconds (or until RESULT_BATCH_SIZE
+	 * results are collected), and all results collected by then are sent 
+	 * in one message
+	 */
 	public void run() {
 		System.out.println("Result sender started.");
+		List<Task> batch = new ArrayList<Task>(Constants.RESULT_BATCH_SIZE);
 		while (! terminated) {
 			try {
-				Future<Task> futureTask = results.take();
-				worker.taskCompleted();
-				Task completedTask = futureTask.get();
-				int taskId = completedTask.getId();
-				Object result = completedTask.getResult();
-				double cpuShareUsed = completedTask.getCpuShareUsed();
-				worker.sendResult(taskId, result, cpuShareUsed);
+				collect(results.take(), batch);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.RESULT_LINGER);
+				while (batch.size() < Constants.RESULT_BATCH_SIZE) {
+					long remaining = deadline - System.nanoTime();
+					Future<Task> futureTask = remaining > 0 ? 
+							results.poll(remaining, TimeUnit.NANOSECONDS) : results.poll();
+					if (futureTask == null) {
+						break;
+					}
+					collect(futureTask, batch);
+				}
 			} catch (InterruptedException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
-			} catch (ExecutionException e) {
-				// TODO Auto-generated catch block
+			}
+			try {
+				send(batch);
+			} catch (RuntimeException e) {
+				//a bad result must not stop the results that follow
 				e.printStackTrace();
-			}	
+			}
+			batch.clear();
+			worker.reportSpareCapacity();
 		}
 		System.out.println("Result sender finished!");
 	}
 	
+	/**
+	 * Add the completed task to the batch
+	 * @param futureTask - completed task
+	 * @param batch - results to send
+	 */
+	private void collect(Future<Task> futureTask, List<Task> batch) throws InterruptedException {
+		worker.taskCompleted();
+		if (futureTask.isCancelled()) {
+			//the task was aborted or given up (see Worker.abortTask and 
+			//Worker.removeTasks), no result to send
+			return;
+		}
+		try {
+			Task completedTask = futureTask.get();
+			if (completedTask != null) {
+				batch.add(completedTask);
+			}
+		} catch (ExecutionException e) {
+			if (! (e.getCause() instanceof CancellationException)) {
+				//given up just before it started otherwise, see Worker.newTask
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Send the collected results: a single result as RESULT, 
+	 * several as RESULT_BATCH
+	 * @param batch - results to send
+	 */
+	private void send(List<Task> batch) {
+		if (batch.size() == 1) {
+			Task completedTask = batch.get(0);
+			worker.sendResult(completedTask.getId(), completedTask.getResult(), 
+					completedTask.getCpuShareUsed(), completedTask.getExecutionTime());
+		} else if (batch.size() > 1) {
+			int[] taskIds = new int[batch.size()];
+			Object[] taskResults = new Object[batch.size()];
+			double[] cpuSharesUsed = new double[batch.size()];
+			long[] executionTimes = new long[batch.size()];
+			for (int i = 0; i < batch.size(); i++) {
+				taskIds[i] = batch.get(i).getId();
+				taskResults[i] = batch.get(i).getResult();
+				cpuSharesUsed[i] = batch.get(i).getCpuShareUsed();
+				executionTimes[i] = batch.get(i).getExecutionTime();
+			}
+			worker.sendResults(taskIds, taskResults, cpuSharesUsed, executionTimes);
+		}
+	}
+	
 }
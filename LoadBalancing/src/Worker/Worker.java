@@ -1,29 +1,52 @@
 package Worker;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.util.Timer;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Common.Constants;
-import Common.ExternalSocketCloser;
 import Common.Message;
+import Common.MessageHandler;
 import Common.Performance;
+import Common.ServerLink;
 import Common.Task;
 
-public class Worker {
+public class Worker implements MessageHandler {
 
 	/** ID of the client */
 	private volatile int id;
 	
 	/** Keeps count of how many tasks are active */
-	private volatile int activeTaskCount;
+	private final AtomicInteger activeTaskCount = new AtomicInteger();
+	
+	/** Tasks submitted to the thread pool that have not started yet. 
+	 * A task is taken out of here either by the thread that starts it, or
+	 * by the server's request to give it up (see removeTasks), never both.
+	 * Key - task ID */
+	private final Map<Integer, Task> waitingTasks = new ConcurrentHashMap<Integer, Task>();
+	
+	/** Tasks submitted to the thread pool that have not completed yet, so
+	 * they can be aborted (see abortTask).
+	 * Key - task ID */
+	private final Map<Integer, Future<Task>> submittedTasks = 
+			new ConcurrentHashMap<Integer, Future<Task>>();
+	
+	/** CPU load of the last performance report */
+	private volatile double lastCpuLoad;
+	
+	/** Time (in milliseconds) spare capacity was last reported */
+	private volatile long lastSpareCapacityReport;
 	
 	/** Port, on which client is listening */
 	private final int listeningPort;
@@ -37,8 +60,12 @@ public class Worker {
 	/** Server's port */
 	private int serverPort;
 	
-	private ExecutorCompletionService<Task> executor = null;
+	/** Persistent connection to the server */
+	private ServerLink link = null;
 	
+	private ExecutorService executor = null;
+	
+	/** Tasks completed (or aborted), in the order they were completed */
 	LinkedBlockingQueue< Future<Task> > completedTasks = 
 			new LinkedBlockingQueue< Future<Task> >();
 	
@@ -52,8 +79,7 @@ public class Worker {
 		listeningPort = _port;
 		id = Constants.NULL_ID;
 		
-		executor = new ExecutorCompletionService<Task>
-				(Executors.newFixedThreadPool(Constants.THREADS_IN_WORKER), completedTasks);
+		executor = Executors.newFixedThreadPool(Constants.THREADS_IN_WORKER);
 		
 	}
 	
@@ -105,7 +131,7 @@ public class Worker {
 	}
 	
 	public int getActiveTaskCount() {
-		return activeTaskCount;
+		return activeTaskCount.get();
 	}
 	
 	/**
@@ -125,6 +151,10 @@ public class Worker {
 	public void setServerInfo(InetAddress address, int port) {
 		serverAddress = address;
 		serverPort = port;
+		if (link != null) {
+			link.close();
+		}
+		link = new ServerLink(address, port, this);
 	}
 	
 	/**
@@ -136,25 +166,156 @@ public class Worker {
 			id = newId;
 		}
 		isRegistered = true;
+		if (link != null) {
+			link.setSyncMessage(new Message(Constants.RequestType.SYNC, newId, 
+					listeningPort, Constants.ClientType.WORKER));
+		}
 		System.out.println("Obtained id: " + newId);
 	}
 	
+	/**
+	 * Message was pushed by the server over the persistent connection
+	 * @param message - received message
+	 */
+	@Override
+	public void messageReceived(Message message) {
+		switch (message.getCommand()) {
+		case SYNC:
+			int id = (Integer) message.getArgs()[0];
+			assignId(id);
+			break;
+		case NEW_TASK:
+			Task task = (Task) message.getArgs()[1];
+			newTask(task);
+			break;
+		case NEW_TASK_BATCH:
+			for (Task batchTask : (Task[]) message.getArgs()[1]) {
+				newTask(batchTask);
+			}
+			break;
+		case REMOVE_TASK:
+			removeTasks(message);
+			break;
+		case ABORT:
+			abortTask((int) message.getArgs()[1]);
+			break;
+		default:
+			System.out.println("Unrecognized command received: " + message.getCommand());
+			break;
+		}
+	}
+	
 	/**
 	 * New task was received. Increment counter of held tasks and submit it
-	 * to the thread pool
+	 * to the thread pool. Once the task is completed (or aborted), it is
+	 * queued for the ResultSender
 	 * @param task - received task
 	 */
-	public void newTask(Task task) {
+	public void newTask(final Task task) {
 		System.out.println("\nSubmitting task Id " + task.getId());
-		activeTaskCount++;
-		executor.submit(task);
+		activeTaskCount.incrementAndGet();
+		waitingTasks.put(task.getId(), task);
+		FutureTask<Task> futureTask = new FutureTask<Task>(new Callable<Task>() {
+			@Override
+			public Task call() {
+				if (waitingTasks.remove(task.getId()) == null) {
+					//the task was given up just before it started, see
+					//removeTasks; it leaves the pool without a result
+					throw new CancellationException("Task Id " + task.getId() + " was given up");
+				}
+				return task.call();
+			}
+		}) {
+			@Override
+			protected void done() {
+				submittedTasks.remove(task.getId(), this);
+				completedTasks.add(this);
+			}
+		};
+		submittedTasks.put(task.getId(), futureTask);
+		executor.execute(futureTask);
+	}
+	
+	/**
+	 * User has aborted the task. A task that has not started yet is never
+	 * started, a running task is interrupted (see Task.isCancelled)
+	 * @param taskId - id of the task
+	 */
+	public void abortTask(int taskId) {
+		Future<Task> futureTask = submittedTasks.get(taskId);
+		if (futureTask == null) {
+			System.out.println("Task Id " + taskId + " to abort is not held by this worker");
+			return;
+		}
+		//cancel first: a thread starting the task meanwhile finds it still
+		//waiting and runs it, only to be interrupted
+		if (! futureTask.cancel(true)) {
+			System.out.println("Task Id " + taskId + " to abort has already completed");
+			return;
+		}
+		waitingTasks.remove(taskId);
+		System.out.println("Aborted task Id " + taskId);
+	}
+	
+	/**
+	 * Server asks to give up tasks, so they can be executed by another 
+	 * worker. Only the tasks that have not started yet are given up, the
+	 * server is told which ones
+	 * @param request - REMOVE_TASK message from the server
+	 */
+	public void removeTasks(Message request) {
+		int[] taskIds = (int[]) request.getArgs()[1];
+		List<Integer> removed = new ArrayList<Integer>(taskIds.length);
+		for (int taskId : taskIds) {
+			if (waitingTasks.remove(taskId) != null) {
+				//never started, leaves the thread pool as an aborted task
+				Future<Task> futureTask = submittedTasks.get(taskId);
+				if (futureTask != null) {
+					futureTask.cancel(false);
+				}
+				removed.add(taskId);
+			}
+		}
+		int[] removedIds = new int[removed.size()];
+		for (int i = 0; i < removedIds.length; i++) {
+			removedIds[i] = removed.get(i);
+		}
+		System.out.println("Gave up " + removedIds.length + " of " + taskIds.length + " tasks");
+		try {
+			link.reply(request, new Message(Constants.RequestType.REMOVE_TASK, id, 
+					removedIds, request.getArgs()[0]));
+		} catch (IOException e) {
+			System.out.println("Sending removed tasks failed...");
+		}
 	}
 	
 	/**
 	 * When task is completed, decrement counter of uncompleted tasks
 	 */
 	public void taskCompleted() {
-		activeTaskCount--;
+		activeTaskCount.decrementAndGet();
+	}
+	
+	/**
+	 * Tell the server that a thread is about to be idle: no task is waiting
+	 * for a thread, so the server may move tasks from the other workers
+	 * here. Reported at most once every SPARE_CAPACITY_REPORT_INTERVAL
+	 */
+	public void reportSpareCapacity() {
+		long now = System.currentTimeMillis();
+		if (! waitingTasks.isEmpty() || activeTaskCount.get() >= Constants.THREADS_IN_WORKER
+				|| now - lastSpareCapacityReport < Constants.SPARE_CAPACITY_REPORT_INTERVAL) {
+			return;
+		}
+		lastSpareCapacityReport = now;
+		Performance stats = new Performance();
+		stats.setCpuLoad(lastCpuLoad);
+		stats.setUncompletedTaskCount(activeTaskCount.get());
+		try {
+			sendStat(stats);
+		} catch (IOException e) {
+			// ignore
+		}
 	}
 	
 	/**
@@ -162,17 +323,30 @@ public class Worker {
 	 * @param taskId - id of the completed task
 	 * @param result - result of this task
 	 * @param cpuShareUsed - fraction of CPU used by this task during execution
+	 * @param executionTime - time (in milliseconds) the execution took
 	 */
-	public void sendResult(int taskId, Object result, Double cpuShareUsed) {
+	public void sendResult(int taskId, Object result, Double cpuShareUsed, long executionTime) {
 		try {
-			Socket socket = new Socket(serverAddress, serverPort);
-			ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
-			Message resultMessage = new Message(Constants.RequestType.RESULT, id, taskId, result, cpuShareUsed);
-			ooStream.writeObject(resultMessage);
-			ooStream.flush();
-			socket.shutdownOutput();
-			socket.shutdownInput();
-			socket.close();
+			Message resultMessage = new Message(Constants.RequestType.RESULT, id, taskId, result, cpuShareUsed,
+					executionTime);
+			link.send(resultMessage);
+		} catch (Exception e) {
+			System.out.println("Sending task failed...");
+		}
+	}
+
+	/**
+	 * Sends the results of a number of tasks to the server at once
+	 * @param taskIds - ids of the completed tasks
+	 * @param results - results of these tasks
+	 * @param cpuSharesUsed - fractions of CPU used by these tasks during execution
+	 * @param executionTimes - times (in milliseconds) the executions took
+	 */
+	public void sendResults(int[] taskIds, Object[] results, double[] cpuSharesUsed, long[] executionTimes) {
+		try {
+			Message resultMessage = new Message(Constants.RequestType.RESULT_BATCH, id, taskIds, results, cpuSharesUsed,
+					executionTimes);
+			link.send(resultMessage);
 		} catch (Exception e) {
 			System.out.println("Sending task failed...");
 		}
@@ -180,58 +354,32 @@ public class Worker {
 
 	/**
 	 * Implements initial communcation with the server workflow
-	 *  - client sends sync with its id to the server
+	 *  - worker opens persistent connection and sends sync with its id
 	 *  - server responds with another sync message, containing assigned id
+	 * The same sync is repeated automatically whenever connection is 
+	 * re-established.
 	 * If something goes wrong in the workflow, connection is terminated
 	 * @param syncId - client's self-assigned id
 	 * @return true, if sync was successful and server-assigned id received
 	 * 		   false, otherwise
 	 */
 	public boolean sync(int syncId) {
-		boolean syncSuccessful = false;
 		Message helloMsg = new Message(Constants.RequestType.SYNC, syncId, listeningPort, Constants.ClientType.WORKER);
-		Socket socket = null;
+		isRegistered = false;
+		link.setSyncMessage(helloMsg);
 		try {
-			socket = new Socket(serverAddress, serverPort);
-			ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
-			ooStream.writeObject(helloMsg);
+			link.reconnect();
 			System.out.println("Message sent! Command: " + helloMsg.getCommand());
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.out.println("Sending failed...Command: " + helloMsg.getCommand());
 			return false;
 		}
-		Timer timer = new Timer();
-		try {
-			ExternalSocketCloser interrupter = new ExternalSocketCloser(socket);
-			ObjectInputStream oiStream = new ObjectInputStream(socket.getInputStream());
-			while (! syncSuccessful) {
-				timer.schedule(interrupter, 3000);
-				Message serverMsg = (Message) oiStream.readObject();
-				if (serverMsg.getCommand().equals(Constants.RequestType.SYNC)) {
-					int id = (int) serverMsg.getArgs()[0];
-					this.assignId(id);
-					syncSuccessful = true;
-				}
-			}
-			socket.close();
-		} catch (IOException e) {
-			System.out.println("SYNC interrupted.");
-		} catch (ClassNotFoundException e) {
-			// ignore
-		} finally {
-			timer.cancel();
-		}
-		return syncSuccessful;
+		return isRegistered;
 	}
 	
 	public void sendStat(Performance stats) throws IOException {
-		Socket socket = new Socket(serverAddress, serverPort);
-		ObjectOutputStream ooStream = new ObjectOutputStream(socket.getOutputStream());
+		lastCpuLoad = stats.getCpuLoad();
 		Message statMessage = new Message(Constants.RequestType.STATS, id, stats);
-		ooStream.writeObject(statMessage);
-		ooStream.flush();
-		socket.shutdownOutput();
-		socket.shutdownInput();
-		socket.close();
+		link.send(statMessage);
 	}
 }
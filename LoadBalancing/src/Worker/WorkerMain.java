@@ -8,6 +8,8 @@ import java.net.ServerSocket;
 import java.net.UnknownHostException;
 
 import Common.Constants;
+import Common.SelectorGate;
+import Common.Threads;
 
 public class WorkerMain {
 	
@@ -62,7 +64,7 @@ public class WorkerMain {
 		try {
 			while(listenerPort < Integer.MAX_VALUE){
 				try{
-					ss = new ServerSocket(listenerPort);
+					ss = SelectorGate.bind(listenerPort);
 					break;
 				}
 				catch(java.net.BindException e){
@@ -82,12 +84,12 @@ public class WorkerMain {
 			Receiver receiver = new Receiver(ss, worker);
 			ResultSender resultSender = new ResultSender(worker);
 			PerformanceReporter reporter = new PerformanceReporter(worker, Thread.currentThread());
-			resultSender.start();
+			Thread resultSenderThread = Threads.start(resultSender, "ResultSender");
 			receiver.start();
 			reporter.start();
 			try {
 				receiver.join();
-				resultSender.join();
+				resultSenderThread.join();
 				reporter.join();
 			} catch (InterruptedException e) {
 				// ignore